@@ -0,0 +1,126 @@
+package org.neo4j.cypher_rs;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits how many endpoint queries run at the same time, globally and per endpoint.
+ * Reads and writes have separate global limits, so that long running writes and imports can't take the permits of reads.
+ * Callers that don't get a permit right away wait in a bounded queue for at most {@link #MAX_WAIT} ms,
+ * if the queue is full or the wait times out the call is rejected.
+ * Per endpoint limits are taken from the endpoint options {@code maxConcurrent} and {@code maxQueue},
+ * each endpoint version has its own limiter.
+ */
+public class AdmissionControl {
+    public static final int MAX_CONCURRENT = Integer.getInteger("cypher_rs.max_concurrent", 64);
+    public static final int MAX_CONCURRENT_WRITES = Integer.getInteger("cypher_rs.max_concurrent_writes", 16);
+    public static final int MAX_QUEUE = Integer.getInteger("cypher_rs.max_queue", 256);
+    public static final long MAX_WAIT = Long.getLong("cypher_rs.max_wait", 1000);
+    public static final int RETRY_AFTER = Integer.getInteger("cypher_rs.retry_after", 1);
+
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVICE_UNAVAILABLE = 503;
+
+    private final Limiter reads;
+    private final Limiter writes;
+    private final ConcurrentMap<String, Limiter> endpoints = new ConcurrentHashMap<>();
+
+    /**
+     * Reads and writes get the same limit, each their own.
+     */
+    public AdmissionControl(int maxConcurrent, int maxQueue) {
+        this(maxConcurrent, maxConcurrent, maxQueue);
+    }
+
+    public AdmissionControl(int maxReads, int maxWrites, int maxQueue) {
+        reads = new Limiter(maxReads, maxQueue);
+        writes = new Limiter(maxWrites, maxQueue);
+    }
+
+    public Ticket admit(Endpoint endpoint) throws RejectedException {
+        Limiter limiter = limiterFor(endpoint);
+        if (limiter != null && !limiter.acquire()) {
+            throw new RejectedException(TOO_MANY_REQUESTS, RETRY_AFTER, "Too many concurrent requests for endpoint " + endpoint.getKey());
+        }
+        boolean write = Utils.isWriteQuery(endpoint.getQuery());
+        Limiter global = write ? writes : reads;
+        if (!global.acquire()) {
+            if (limiter != null) limiter.release();
+            throw new RejectedException(SERVICE_UNAVAILABLE, RETRY_AFTER, "Too many concurrent " + (write ? "writes" : "reads"));
+        }
+        return new Ticket(global, limiter);
+    }
+
+    public void forget(String key) {
+        String prefix = key + Endpoint.VERSION_SEPARATOR;
+        for (String id : endpoints.keySet()) {
+            if (id.startsWith(prefix)) endpoints.remove(id);
+        }
+    }
+
+    // the options of a version never change, so its limiter is created once, concurrent first calls get the same one
+    private Limiter limiterFor(Endpoint endpoint) {
+        int maxConcurrent = endpoint.intOption("maxConcurrent", 0);
+        if (maxConcurrent <= 0) return null;
+        Limiter limiter = endpoints.get(endpoint.getId());
+        if (limiter == null) {
+            limiter = new Limiter(maxConcurrent, endpoint.intOption("maxQueue", MAX_QUEUE));
+            Limiter existing = endpoints.putIfAbsent(endpoint.getId(), limiter);
+            if (existing != null) limiter = existing;
+        }
+        return limiter;
+    }
+
+    public static class Ticket implements AutoCloseable {
+        private final Limiter global;
+        private final Limiter limiter;
+        private boolean closed;
+
+        private Ticket(Limiter global, Limiter limiter) {
+            this.global = global;
+            this.limiter = limiter;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            global.release();
+            if (limiter != null) limiter.release();
+        }
+    }
+
+    static class Limiter {
+        private final int maxQueue;
+        private final Semaphore permits;
+        private final AtomicInteger waiting = new AtomicInteger();
+
+        Limiter(int maxConcurrent, int maxQueue) {
+            this.maxQueue = maxQueue;
+            this.permits = new Semaphore(maxConcurrent, true);
+        }
+
+        boolean acquire() {
+            if (permits.tryAcquire()) return true;
+            if (waiting.incrementAndGet() > maxQueue) {
+                waiting.decrementAndGet();
+                return false;
+            }
+            try {
+                return permits.tryAcquire(MAX_WAIT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+
+        void release() {
+            permits.release();
+        }
+    }
+}
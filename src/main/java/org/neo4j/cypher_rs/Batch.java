@@ -0,0 +1,202 @@
+package org.neo4j.cypher_rs;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs several endpoint calls in one request and streams their results in order.
+ * Calls of write endpoints share one transaction which is only committed if all of them succeed,
+ * if all endpoints are read-only the calls run in parallel, each in its own transaction.
+ *
+ * Output: {"results":[{"endpoint":"users","status":200,"result":...},...],"committed":true}
+ */
+public class Batch implements StreamingOutput {
+    public static final int MAX_SIZE = Integer.getInteger("cypher_rs.max_batch", 100);
+
+    private static final int GATEWAY_TIMEOUT = 504;
+
+    private final GraphDatabaseService db;
+    private final EndpointExecutor executor;
+    private final ExecutorService readExecutor;
+    private final List<Entry> entries;
+    private final String timeout;
+
+    public Batch(GraphDatabaseService db, EndpointExecutor executor, ExecutorService readExecutor, List<Entry> entries, String timeout) {
+        this.db = db;
+        this.executor = executor;
+        this.readExecutor = readExecutor;
+        this.entries = entries;
+        this.timeout = timeout;
+    }
+
+    public static class Entry {
+        private final Endpoint endpoint;
+        private final Map<String, Object> params;
+
+        public Entry(Endpoint endpoint, Map<String, Object> params) {
+            this.endpoint = endpoint;
+            this.params = params == null ? Collections.<String, Object>emptyMap() : params;
+        }
+    }
+
+    static class Outcome {
+        final int status;
+        // rendered json
+        final String result;
+        final String error;
+        final String truncated;
+
+        Outcome(int status, String result, String error) {
+            this(status, result, error, null);
+        }
+
+        Outcome(int status, String result, String error, String truncated) {
+            this.status = status;
+            this.result = result;
+            this.error = error;
+            this.truncated = truncated;
+        }
+
+        boolean isOk() {
+            return error == null;
+        }
+    }
+
+    boolean isReadOnly() {
+        for (Entry entry : entries) {
+            if (Utils.isWriteQuery(entry.endpoint.getQuery())) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException, WebApplicationException {
+        JsonGenerator gen = Utils.OBJECT_MAPPER.getJsonFactory().createJsonGenerator(out, JsonEncoding.UTF8);
+        gen.writeStartObject();
+        gen.writeArrayFieldStart("results");
+        if (isReadOnly()) {
+            writeParallel(gen);
+            gen.writeEndArray();
+            gen.writeBooleanField("committed", true);
+        } else {
+            writeInTransaction(gen);
+        }
+        gen.writeEndObject();
+        gen.close();
+    }
+
+    private void writeParallel(JsonGenerator gen) throws IOException {
+        List<Future<Outcome>> futures = new ArrayList<>(entries.size());
+        for (final Entry entry : entries) {
+            FutureTask<Outcome> task = new FutureTask<>(new Callable<Outcome>() {
+                public Outcome call() {
+                    try (Transaction tx = db.beginTx()) {
+                        return execute(entry);
+                    }
+                }
+            });
+            try {
+                readExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // read pool is saturated, run this call here instead
+                task.run();
+            }
+            futures.add(task);
+        }
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                write(gen, entries.get(i), outcome(futures.get(i)));
+            }
+        } finally {
+            for (Future<Outcome> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private Outcome outcome(Future<Outcome> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for batch results", e);
+        } catch (ExecutionException e) {
+            return new Outcome(500, null, String.valueOf(e.getCause().getMessage()));
+        }
+    }
+
+    private void writeInTransaction(JsonGenerator gen) throws IOException {
+        boolean ok = true;
+        String error = null;
+        try {
+            try (Transaction tx = db.beginTx()) {
+                for (Entry entry : entries) {
+                    Outcome outcome = execute(entry);
+                    write(gen, entry, outcome);
+                    if (!outcome.isOk()) {
+                        ok = false;
+                        break;
+                    }
+                }
+                if (ok) tx.success();
+            }
+        } catch (RuntimeException e) {
+            ok = false;
+            error = e.getMessage();
+        }
+        gen.writeEndArray();
+        gen.writeBooleanField("committed", ok);
+        if (error != null) gen.writeStringField("error", error);
+    }
+
+    private Outcome execute(Entry entry) {
+        try {
+            EndpointCall call = new EndpointCall(entry.endpoint, Collections.singletonList(entry.params)).withTimeout(timeout);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            EndpointExecutor.Rendered rendered = executor.renderAll(call, out);
+            String json = rendered.getBody() == null ? null : out.toString("UTF-8");
+            return new Outcome(200, json, null, rendered.getTruncated());
+        } catch (RejectedException e) {
+            return new Outcome(e.getStatus(), null, e.getMessage());
+        } catch (QueryTimeoutException e) {
+            return new Outcome(GATEWAY_TIMEOUT, null, e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new Outcome(500, null, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void write(JsonGenerator gen, Entry entry, Outcome outcome) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("endpoint", entry.endpoint.getKey());
+        gen.writeNumberField("status", outcome.status);
+        if (outcome.isOk()) {
+            gen.writeFieldName("result");
+            if (outcome.result == null) gen.writeNull();
+            else gen.writeRawValue(outcome.result);
+            if (outcome.truncated != null) gen.writeStringField("truncated", outcome.truncated);
+        } else {
+            gen.writeStringField("error", outcome.error);
+        }
+        gen.writeEndObject();
+        gen.flush();
+    }
+}
@@ -0,0 +1,379 @@
+package org.neo4j.cypher_rs;
+
+import au.com.bytecode.opencsv.CSVReader;
+import org.codehaus.jackson.JsonProcessingException;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.server.rest.repr.BadInputException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs an endpoint once per line of a request body, reading and executing line by line,
+ * committing in batches sized by a {@link BatchSizer}. If a line can't be read or its query fails the import stops
+ * with the line number, batches committed before stay committed.
+ *
+ * With {@link #withDeadLetters} lines that can't be read are skipped and a failed batch is re-run in halves until the
+ * failing lines are isolated, the other lines are committed and the failing ones written to a dead-letter file,
+ * together with the skipped lines.
+ * The import stops when more than {@code maxErrors} lines were rejected.
+ *
+ * Output: the {@link UpdateStatistics}, and if lines were skipped or failed
+ * {"skipped":1,"failed":1,"errors":[{"line":3,"error":"..."}],"deadletter":"<id>"}
+ */
+public class BatchImporter {
+    /** errors after these are only counted */
+    public static final int MAX_REPORTED_ERRORS = 100;
+    public static final int MAX_ERRORS = Integer.getInteger("cypher_rs.max_errors", 1000);
+
+    /**
+     * The parameter maps of a request body, one per line.
+     */
+    public interface Source {
+        /**
+         * @return the parameters of the next line, null at the end
+         * @throws BadInputException if the line can't be read
+         */
+        Map<String, Object> next() throws IOException, BadInputException;
+
+        /**
+         * @return the number of the line returned last, starting at 1
+         */
+        int getLine();
+
+        /**
+         * @return the column names for the dead-letter file
+         */
+        String[] getColumns();
+
+        /**
+         * @return the lines returned last as they were read, also if they couldn't be read
+         */
+        List<Record> getRecords();
+    }
+
+    /**
+     * A line of the request body as it was read.
+     */
+    public static class Record {
+        final int line;
+        final String[] values;
+
+        public Record(int line, String[] values) {
+            this.line = line;
+            this.values = values;
+        }
+    }
+
+    // the lines of the current batch in tolerant mode, which may have to be re-run
+    private static class Line {
+        final Map<String, Object> params;
+        final List<Record> records;
+
+        Line(Map<String, Object> params, List<Record> records) {
+            this.params = params;
+            this.records = records;
+        }
+    }
+
+    private static class TooManyErrors extends Exception {
+    }
+
+    /**
+     * Thrown if the query failed for a line, with the number of lines committed before.
+     */
+    public static class ImportException extends Exception {
+        public ImportException(int line, int committed, Exception cause) {
+            super("Line " + line + ": " + cause.getMessage() + ", " + committed + " lines committed", cause);
+        }
+    }
+
+    private final GraphDatabaseService db;
+    private final EndpointExecutor executor;
+    private final Endpoint endpoint;
+    private final BatchSizer sizer;
+    private final Deadline deadline;
+    private final UpdateStatistics stats = new UpdateStatistics();
+    private final List<Map<String, Object>> errors = new ArrayList<>();
+    private int skipped, failed, committed;
+    private DeadLetters deadLetters;
+    private int maxErrors;
+    private DeadLetters.DeadLetter deadLetter;
+    private String aborted;
+    private RuntimeException lastError;
+
+    public BatchImporter(GraphDatabaseService db, EndpointExecutor executor, Endpoint endpoint, BatchSizer sizer, Deadline deadline) {
+        this.db = db;
+        this.executor = executor;
+        this.endpoint = endpoint;
+        this.sizer = sizer;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Switches to tolerant mode, rejected lines are written to a file of {@code deadLetters}.
+     */
+    public BatchImporter withDeadLetters(DeadLetters deadLetters, int maxErrors) {
+        this.deadLetters = deadLetters;
+        this.maxErrors = maxErrors;
+        return this;
+    }
+
+    /**
+     * @return why the import stopped before the end in tolerant mode, otherwise null
+     */
+    public String getAborted() {
+        return aborted;
+    }
+
+    /**
+     * @return the id of the dead-letter file, null if no line was rejected
+     */
+    public String getDeadLetterId() {
+        return deadLetter == null ? null : deadLetter.getId();
+    }
+
+    /**
+     * @throws BadInputException in strict mode, if a line can't be read
+     * @throws ImportException in strict mode, if the query fails for a line
+     */
+    public Map<String, Object> run(Source source) throws IOException, BadInputException, ImportException {
+        if (deadLetters == null) {
+            runStrict(source);
+            return toMap();
+        }
+        try {
+            runTolerant(source);
+        } catch (TooManyErrors e) {
+            aborted = "More than " + maxErrors + " errors, stopped after reading line " + source.getLine();
+        } finally {
+            if (deadLetter != null) deadLetter.close();
+        }
+        return toMap();
+    }
+
+    private void runStrict(Source source) throws IOException, BadInputException, ImportException {
+        int count = 0;
+        sizer.start();
+        Transaction tx = db.beginTx();
+        try {
+            while (true) {
+                Map<String, Object> params;
+                try {
+                    params = source.next();
+                } catch (BadInputException e) {
+                    // the current batch is rolled back
+                    throw new BadInputException("Line " + source.getLine() + ": " + e.getMessage() + ", " + committed + " lines committed");
+                }
+                if (params == null) break;
+                deadline.check();
+                try {
+                    stats.add(executor.execute(endpoint, params), deadline);
+                } catch (QueryTimeoutException e) {
+                    // rows of the current batch are rolled back, earlier batches stay committed
+                    throw new QueryTimeoutException(e.getMessage() + " after " + committed + " rows");
+                } catch (RuntimeException e) {
+                    throw new ImportException(source.getLine(), committed, e);
+                }
+                if (++count - committed >= sizer.size()) {
+                    tx.success(); tx.close();
+                    sizer.committed(count - committed);
+                    committed = count;
+                    sizer.start();
+                    tx = db.beginTx();
+                }
+            }
+            tx.success();
+        } finally {
+            tx.close();
+        }
+        if (count > committed) sizer.committed(count - committed);
+    }
+
+    private void runTolerant(Source source) throws IOException, TooManyErrors {
+        List<Line> batch = new ArrayList<>();
+        sizer.start();
+        while (true) {
+            Map<String, Object> params;
+            try {
+                params = source.next();
+            } catch (BadInputException e) {
+                skipped++;
+                reject(source.getRecords(), e.getMessage(), source);
+                continue;
+            }
+            if (params == null) break;
+            batch.add(new Line(params, source.getRecords()));
+            if (batch.size() >= sizer.size()) {
+                commit(batch, source);
+                batch.clear();
+                sizer.start();
+            }
+        }
+        commit(batch, source);
+    }
+
+    // only batches that succeed at once are measured, re-runs of failed ones would distort the timing
+    private void commit(List<Line> batch, Source source) throws IOException, TooManyErrors {
+        if (batch.isEmpty()) return;
+        if (tryCommit(batch)) sizer.committed(batch.size());
+        else bisect(batch, source);
+    }
+
+    // a failed batch is split until the failing lines are found, lines in halves that succeed are committed
+    private void bisect(List<Line> lines, Source source) throws IOException, TooManyErrors {
+        if (lines.size() == 1) {
+            Line line = lines.get(0);
+            failed++;
+            reject(line.records, String.valueOf(lastError.getMessage()), source);
+            return;
+        }
+        int middle = lines.size() / 2;
+        for (List<Line> half : Arrays.asList(lines.subList(0, middle), lines.subList(middle, lines.size()))) {
+            if (!tryCommit(half)) bisect(half, source);
+        }
+    }
+
+    private boolean tryCommit(List<Line> lines) {
+        UpdateStatistics attempt = new UpdateStatistics();
+        // a failed commit is thrown when the transaction is closed, so it's caught here as well
+        try (Transaction tx = db.beginTx()) {
+            for (Line line : lines) {
+                deadline.check();
+                attempt.add(executor.execute(endpoint, line.params), deadline);
+            }
+            tx.success();
+        } catch (QueryTimeoutException e) {
+            throw new QueryTimeoutException(e.getMessage() + " after " + committed + " rows");
+        } catch (RuntimeException e) {
+            lastError = e;
+            return false;
+        }
+        stats.add(attempt);
+        committed += lines.size();
+        return true;
+    }
+
+    private void reject(List<Record> records, String message, Source source) throws IOException, TooManyErrors {
+        error(records.get(0).line, message);
+        if (deadLetter == null) deadLetter = deadLetters.create(source.getColumns());
+        for (Record record : records) {
+            deadLetter.write(record.line, message, record.values);
+        }
+        if (skipped + failed > maxErrors) throw new TooManyErrors();
+    }
+
+    private void error(int line, String message) {
+        if (errors.size() >= MAX_REPORTED_ERRORS) return;
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("line", line);
+        error.put("error", message);
+        errors.add(error);
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> result = stats.toMap();
+        if (skipped > 0) result.put("skipped", skipped);
+        if (failed > 0) result.put("failed", failed);
+        if (!errors.isEmpty()) result.put("errors", errors);
+        if (deadLetter != null) result.put("deadletter", deadLetter.getId());
+        if (aborted != null) result.put("aborted", aborted);
+        if (sizer.isAdaptive()) result.put("batch", sizer.toMap());
+        return result;
+    }
+
+    /**
+     * CSV with a header line, which names the parameters.
+     */
+    // CSV values are converted as they always were, unlike GET parameters "007" is imported as 7
+    static Object convert(String value) throws BadInputException {
+        try {
+            return Utils.convertIfNeeded(value);
+        } catch (NumberFormatException e) {
+            throw new BadInputException("Invalid number " + value);
+        }
+    }
+
+    public static Source csv(Reader body, char delim) throws IOException {
+        final CSVReader reader = new CSVReader(body, delim, '"', '\\', 0, false, false);
+        final String[] header = reader.readNext();
+        return new Source() {
+            int line = 1;
+            String[] row;
+
+            public Map<String, Object> next() throws IOException, BadInputException {
+                row = reader.readNext();
+                if (row == null) return null;
+                line++;
+                if (header == null || row.length != header.length) {
+                    throw new BadInputException("Expected " + (header == null ? 0 : header.length) + " columns but found " + row.length);
+                }
+                Map<String, Object> params = new LinkedHashMap<>(header.length);
+                for (int i = 0; i < header.length; i++) {
+                    params.put(header[i], convert(row[i]));
+                }
+                return params;
+            }
+
+            public int getLine() {
+                return line;
+            }
+
+            public String[] getColumns() {
+                return header == null ? new String[0] : header;
+            }
+
+            public List<Record> getRecords() {
+                return Collections.singletonList(new Record(line, row));
+            }
+        };
+    }
+
+    /**
+     * One json map per line, empty lines are ignored.
+     */
+    public static Source ndjson(Reader body) {
+        final BufferedReader reader = body instanceof BufferedReader ? (BufferedReader) body : new BufferedReader(body);
+        return new Source() {
+            int line;
+            String text;
+
+            @SuppressWarnings("unchecked")
+            public Map<String, Object> next() throws IOException, BadInputException {
+                do {
+                    text = reader.readLine();
+                    if (text == null) return null;
+                    line++;
+                } while (text.trim().isEmpty());
+                Object data;
+                try {
+                    data = Utils.OBJECT_MAPPER.readValue(text, Object.class);
+                } catch (JsonProcessingException e) {
+                    throw new BadInputException("Invalid json: " + e.getMessage());
+                }
+                if (!(data instanceof Map)) throw new BadInputException("Expected a json map");
+                return (Map<String, Object>) data;
+            }
+
+            public int getLine() {
+                return line;
+            }
+
+            public String[] getColumns() {
+                return new String[]{"json"};
+            }
+
+            public List<Record> getRecords() {
+                return Collections.singletonList(new Record(line, new String[]{text}));
+            }
+        };
+    }
+}
@@ -0,0 +1,113 @@
+package org.neo4j.cypher_rs;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The number of lines an import commits at once, fixed or adapted after each batch.
+ * Adaptive sizing aims at a commit time of {@link #TARGET_MILLIS} ms: the next batch is scaled by target / measured time,
+ * at most doubled or halved per batch. Batches that spent more than a quarter of their time in garbage collection,
+ * usually from large transaction state, halve the size.
+ *
+ * Output in adaptive mode: {"mode":"auto","batches":3,"sizes":[1000,2000,4000],"avg_ms":420.5}
+ */
+public class BatchSizer {
+    public static final int DEFAULT_SIZE = 30000;
+    public static final long TARGET_MILLIS = Long.getLong("cypher_rs.batch_target", 1000);
+    public static final int MIN_SIZE = 100;
+    public static final int MAX_SIZE = Integer.getInteger("cypher_rs.max_batch_size", 200000);
+    public static final int INITIAL_SIZE = 1000;
+    /** only the first sizes are reported */
+    public static final int MAX_REPORTED = 100;
+
+    private static final double MAX_GC_SHARE = 0.25;
+
+    private final boolean adaptive;
+    private final long target;
+    private int size;
+    private int batches;
+    private long totalNanos;
+    private final List<Integer> sizes = new ArrayList<>();
+    private long start, gcStart;
+
+    BatchSizer(boolean adaptive, int size, long target) {
+        this.adaptive = adaptive;
+        this.size = size;
+        this.target = target;
+    }
+
+    public static BatchSizer fixed(int size) {
+        if (size <= 0) throw new NumberFormatException("Batch size must be positive: " + size);
+        return new BatchSizer(false, size, 0);
+    }
+
+    public static BatchSizer adaptive() {
+        return new BatchSizer(true, INITIAL_SIZE, TARGET_MILLIS);
+    }
+
+    /**
+     * @param batch null for the default size, {@code auto} for adaptive sizing, or a fixed size
+     */
+    public static BatchSizer parse(String batch) {
+        if (batch == null) return fixed(DEFAULT_SIZE);
+        if (batch.equals("auto")) return adaptive();
+        return fixed(Integer.parseInt(batch));
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Starts measuring the next batch.
+     */
+    public void start() {
+        start = System.nanoTime();
+        gcStart = gcMillis();
+    }
+
+    /**
+     * @param lines the lines committed since {@link #start}
+     */
+    public void committed(int lines) {
+        adjust(lines, System.nanoTime() - start, gcMillis() - gcStart);
+    }
+
+    void adjust(int lines, long nanos, long gcMillis) {
+        batches++;
+        totalNanos += nanos;
+        if (sizes.size() < MAX_REPORTED) sizes.add(lines);
+        // a last, partial batch says nothing about the size
+        if (!adaptive || lines < size) return;
+        double millis = nanos / 1000000d;
+        int next = millis <= 0 ? size * 2 : (int) (size * (target / millis));
+        next = Math.max(size / 2, Math.min(size * 2, next));
+        if (gcMillis > millis * MAX_GC_SHARE) next = Math.min(next, size / 2);
+        size = Math.max(MIN_SIZE, Math.min(MAX_SIZE, next));
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("mode", adaptive ? "auto" : "fixed");
+        result.put("batches", batches);
+        result.put("sizes", sizes);
+        result.put("avg_ms", batches == 0 ? 0 : LatencyStats.millis(totalNanos / batches));
+        return result;
+    }
+}
@@ -0,0 +1,276 @@
+package org.neo4j.cypher_rs;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Direct buffers for serialized responses, so that response bodies, also those shared by the {@link Coalescer},
+ * are kept off the heap. Buffers come in size classes, powers of two from {@link #MIN_SIZE} to {@link #MAX_SIZE},
+ * and are reused when released. At most {@link #CAPACITY} bytes are allocated, when that is reached free buffers
+ * of other classes are evicted and freed, and if none are left heap buffers are handed out instead.
+ * Buffers of entities that are collected without having been released, e.g. when Jersey doesn't write a response,
+ * are returned to the pool when the next buffer is acquired.
+ *
+ * Output: {"capacity":67108864,"allocated":1052672,"in_use":4096,"free":12,"hits":120,"allocations":14,"evicted":0,"heap":0,"reclaimed":0}
+ */
+public class BufferPool {
+    public static final long CAPACITY = Long.getLong("cypher_rs.buffer_pool", 64 * 1024 * 1024);
+    public static final int MIN_SIZE = 4096;
+    public static final int MAX_SIZE = Integer.getInteger("cypher_rs.buffer_max", 16 * 1024 * 1024);
+
+    private final long capacity;
+    private final int maxSize;
+    private final Deque<ByteBuffer>[] free;
+    private final ReferenceQueue<Entity> collected = new ReferenceQueue<>();
+    // keeps the references of unreleased entities reachable, so that they are enqueued
+    private final Set<Unreleased> unreleased = Collections.newSetFromMap(new ConcurrentHashMap<Unreleased, Boolean>());
+    private long allocated, inUse;
+    private long hits, allocations, evicted, heap, reclaimed;
+    private boolean closed;
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(long capacity, int maxSize) {
+        this.capacity = capacity;
+        this.maxSize = Math.max(MIN_SIZE, maxSize);
+        free = new Deque[classOf(this.maxSize) + 1];
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ArrayDeque<>();
+        }
+    }
+
+    private static int classOf(int size) {
+        int cls = 0;
+        while ((MIN_SIZE << cls) < size) cls++;
+        return cls;
+    }
+
+    /**
+     * @return a cleared buffer with at least {@code size} bytes, direct unless the pool is full or the size too large
+     */
+    public synchronized ByteBuffer acquire(int size) {
+        reclaim();
+        if (size > maxSize) {
+            heap++;
+            return ByteBuffer.allocate(size);
+        }
+        int cls = classOf(size);
+        int classSize = MIN_SIZE << cls;
+        ByteBuffer buffer = free[cls].poll();
+        if (buffer != null) {
+            hits++;
+            inUse += classSize;
+            buffer.clear();
+            return buffer;
+        }
+        while (allocated + classSize > capacity && evictLargest()) ;
+        if (allocated + classSize > capacity) {
+            heap++;
+            return ByteBuffer.allocate(classSize);
+        }
+        allocations++;
+        allocated += classSize;
+        inUse += classSize;
+        return ByteBuffer.allocateDirect(classSize);
+    }
+
+    /**
+     * Returns a buffer from {@link #acquire} to the pool, heap buffers are left to the garbage collector.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) return;
+        inUse -= buffer.capacity();
+        if (closed) {
+            allocated -= buffer.capacity();
+            freeMemory(buffer);
+            return;
+        }
+        free[classOf(buffer.capacity())].push(buffer);
+    }
+
+    private void reclaim() {
+        Reference<? extends Entity> ref;
+        while ((ref = collected.poll()) != null) {
+            if (!unreleased.remove(ref)) continue;
+            reclaimed++;
+            release(((Unreleased) ref).buffer);
+        }
+    }
+
+    /**
+     * Frees the free buffers, buffers in use are freed when they are released.
+     */
+    public synchronized void close() {
+        closed = true;
+        while (evictLargest()) ;
+    }
+
+    private boolean evictLargest() {
+        for (int cls = free.length - 1; cls >= 0; cls--) {
+            ByteBuffer buffer = free[cls].poll();
+            if (buffer != null) {
+                allocated -= buffer.capacity();
+                evicted++;
+                freeMemory(buffer);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // frees the native memory now instead of when the buffer is collected, as the pool has accounted it as free already
+    private static void freeMemory(ByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) cleaner.getClass().getMethod("clean").invoke(cleaner);
+        } catch (Exception e) {
+            // not available on this jvm, the memory is freed with the buffer
+        }
+    }
+
+    public Output newOutput() {
+        return new Output();
+    }
+
+    public synchronized Map<String, Object> toMap() {
+        reclaim();
+        int freeBuffers = 0;
+        for (Deque<ByteBuffer> buffers : free) {
+            freeBuffers += buffers.size();
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("capacity", capacity);
+        result.put("allocated", allocated);
+        result.put("in_use", inUse);
+        result.put("free", freeBuffers);
+        result.put("hits", hits);
+        result.put("allocations", allocations);
+        result.put("evicted", evicted);
+        result.put("heap", heap);
+        result.put("reclaimed", reclaimed);
+        return result;
+    }
+
+    private static class Unreleased extends PhantomReference<Entity> {
+        private final ByteBuffer buffer;
+
+        Unreleased(Entity entity, ByteBuffer buffer, ReferenceQueue<Entity> queue) {
+            super(entity, queue);
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Collects written bytes in pooled buffers, moving to the next size class when full.
+     * Closing it doesn't release the buffer, either {@link #toEntity} or {@link #discard} does.
+     */
+    public class Output extends OutputStream {
+        private ByteBuffer buffer = acquire(MIN_SIZE);
+        private boolean done;
+
+        @Override
+        public void write(int b) throws IOException {
+            ensure(1);
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            ensure(length);
+            buffer.put(bytes, offset, length);
+        }
+
+        private void ensure(int length) throws IOException {
+            if (done) throw new IOException("Output was already used");
+            if (buffer.remaining() >= length) return;
+            int needed = buffer.position() + length;
+            ByteBuffer larger = acquire(Math.max(needed, buffer.capacity() * 2));
+            buffer.flip();
+            larger.put(buffer);
+            release(buffer);
+            buffer = larger;
+        }
+
+        public int size() {
+            return buffer.position();
+        }
+
+        /**
+         * @return the written bytes as response entity, which owns the buffer from now on
+         */
+        public Entity toEntity() {
+            done = true;
+            buffer.flip();
+            return new Entity(buffer);
+        }
+
+        /**
+         * Releases the buffer if it wasn't turned into an entity.
+         */
+        public void discard() {
+            if (done) return;
+            done = true;
+            release(buffer);
+        }
+    }
+
+    /**
+     * A response body in a pooled buffer, which is released when it was written as often as it was retained, plus once.
+     * Writes go from the buffer to the response through a channel, in chunks, without copying the whole body onto the heap.
+     */
+    public class Entity implements StreamingOutput {
+        private final ByteBuffer buffer;
+        private final AtomicInteger refs = new AtomicInteger(1);
+        private final Unreleased unreleasedRef;
+
+        Entity(ByteBuffer buffer) {
+            this.buffer = buffer;
+            unreleasedRef = buffer.isDirect() ? new Unreleased(this, buffer, collected) : null;
+            if (unreleasedRef != null) unreleased.add(unreleasedRef);
+        }
+
+        /**
+         * For responses that are written more than once, {@code count} more times.
+         */
+        public void retain(int count) {
+            refs.addAndGet(count);
+        }
+
+        public void release() {
+            if (refs.decrementAndGet() != 0) return;
+            if (unreleasedRef != null && !unreleased.remove(unreleasedRef)) return;
+            BufferPool.this.release(buffer);
+        }
+
+        public int size() {
+            return buffer.limit();
+        }
+
+        @Override
+        public void write(OutputStream out) throws IOException, WebApplicationException {
+            try {
+                if (buffer.hasArray()) out.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+                else Channels.newChannel(out).write(buffer.duplicate());
+            } finally {
+                release();
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.neo4j.cypher_rs;
+
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets identical calls that arrive while one of them is running share its response instead of running the query again.
+ * Calls are identical if they have the same endpoint name and parameters, in any order.
+ * Only calls that are running are shared, so no result is older than the call that asked for it.
+ * A call waits at most {@link #MAX_WAIT} ms or its own timeout for the running one, then runs on its own, 0 disables sharing.
+ * Only successful responses are shared, if the running call fails or times out the waiting ones run on their own.
+ */
+public class Coalescer {
+    public static final long MAX_WAIT = Long.getLong("cypher_rs.coalesce_wait", 5000);
+
+    private final long maxWait;
+    private final ConcurrentMap<String, Flight> running = new ConcurrentHashMap<>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong shared = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+
+    public Coalescer(long maxWait) {
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Names and values are url encoded, so that the key can't be the same for different parameters.
+     *
+     * @param ignore parameters that don't change the result
+     */
+    public static String key(String name, MultivaluedMap<String, String> parameters, String... ignore) {
+        Map<String, List<String>> sorted = new TreeMap<>(parameters);
+        for (String param : ignore) {
+            sorted.remove(param);
+        }
+        StringBuilder key = new StringBuilder(name).append('?');
+        for (Map.Entry<String, List<String>> entry : sorted.entrySet()) {
+            for (String value : entry.getValue()) {
+                key.append(encode(entry.getKey())).append('=').append(encode(value)).append('&');
+            }
+        }
+        return key.toString();
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Runs the call, or waits for the response of a running call with the same key.
+     */
+    public Response call(String key, Callable<Response> call) throws Exception {
+        return call(key, 0, call);
+    }
+
+    /**
+     * @param timeout how long the caller waits at most in ms, 0 for {@link #MAX_WAIT}
+     */
+    public Response call(String key, long timeout, Callable<Response> call) throws Exception {
+        if (maxWait <= 0) return call.call();
+        Flight flight = new Flight();
+        Flight existing = running.putIfAbsent(key, flight);
+        if (existing == null) {
+            executed.incrementAndGet();
+            Response response = null;
+            try {
+                response = call.call();
+                return response;
+            } finally {
+                running.remove(key, flight);
+                flight.complete(response);
+            }
+        }
+        // the running call just finished, its response is only retained for the calls that waited
+        if (!existing.join()) return call.call();
+        joined(key);
+        Response response = existing.await(timeout > 0 ? Math.min(timeout, maxWait) : maxWait);
+        if (response == null) {
+            (existing.isDone() ? retried : timedOut).incrementAndGet();
+            return call.call();
+        }
+        shared.incrementAndGet();
+        // responses are built per request
+        return Response.fromResponse(response).build();
+    }
+
+    /**
+     * A running call and the calls waiting for it. Pooled bodies of shared responses are retained once per waiting call
+     * before any of them can write it, so that the buffer is released after the last one.
+     */
+    private static class Flight {
+        private Response response;
+        private boolean done;
+        private int followers;
+
+        synchronized boolean join() {
+            if (done) return false;
+            followers++;
+            return true;
+        }
+
+        /**
+         * @param response null if the call threw
+         */
+        synchronized void complete(Response response) {
+            // errors, rejections and timeouts are not shared, the deadline of another call may not have been reached
+            this.response = response != null && response.getStatus() < 300 ? response : null;
+            done = true;
+            if (this.response != null && response.getEntity() instanceof BufferPool.Entity) {
+                ((BufferPool.Entity) response.getEntity()).retain(followers);
+            }
+            notifyAll();
+        }
+
+        /**
+         * @return the response, null if the running call didn't finish in time or didn't succeed
+         */
+        synchronized boolean isDone() {
+            return done;
+        }
+
+        synchronized Response await(long wait) throws InterruptedException {
+            long end = System.currentTimeMillis() + wait;
+            long left = wait;
+            while (!done && left > 0) {
+                wait(left);
+                left = end - System.currentTimeMillis();
+            }
+            if (!done) {
+                followers--;
+                return null;
+            }
+            return response;
+        }
+    }
+
+    /**
+     * Called when a call starts waiting for the running one with the same key.
+     */
+    protected void joined(String key) {
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("executed", executed.get());
+        result.put("shared", shared.get());
+        result.put("timed_out", timedOut.get());
+        result.put("retried", retried.get());
+        return result;
+    }
+}
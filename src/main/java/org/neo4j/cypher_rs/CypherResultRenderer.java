@@ -1,10 +1,21 @@
 package org.neo4j.cypher_rs;
 
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.JsonSerializableWithType;
+import org.codehaus.jackson.map.SerializerProvider;
+import org.codehaus.jackson.map.TypeSerializer;
 import org.neo4j.cypher.javacompat.ExecutionResult;
+import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.server.rest.repr.BadInputException;
 
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 
 /**
@@ -12,14 +23,180 @@ import java.util.*;
  */
 @SuppressWarnings("unchecked")
 public class CypherResultRenderer {
+    public static final int MAX_ROWS = Integer.getInteger("cypher_rs.max_rows", 0);
+    public static final long MAX_BYTES = Long.getLong("cypher_rs.max_bytes", 0);
+
+    public static final String TRUNCATED_ROWS = "rows";
+    public static final String TRUNCATED_BYTES = "bytes";
+    public static final String TRUNCATED_BUDGET = "budget";
+
+    /**
+     * How paths are rendered: as materialized lists of elements, as lists of elements written to the json generator
+     * while iterating the path, or in the compact form {@code {"nodes":[ids],"relationships":[ids]}}, also streamed.
+     * Streamed paths must be serialized while the transaction is still open.
+     */
+    public enum Paths {
+        MATERIALIZED, STREAMED, COMPACT;
+
+        /**
+         * @param mode {@code null} or {@code full} for streamed paths, {@code compact} for ids only
+         */
+        public static Paths parse(String mode) throws BadInputException {
+            if (mode == null || mode.equals("full")) return STREAMED;
+            if (mode.equals("compact")) return COMPACT;
+            throw new BadInputException("Unknown path mode " + mode + ", expected full or compact");
+        }
+    }
+
+    private final FieldFilter fields;
+    private Paths paths = Paths.MATERIALIZED;
+    private int maxRows;
+    private LatencyBudget budget = LatencyBudget.NONE;
+    private String truncated;
+    private int rowCount;
+    private boolean timed;
+    private long iterateNanos, convertNanos, writeNanos;
+
+    public CypherResultRenderer() {
+        this(FieldFilter.ALL);
+    }
+
+    public CypherResultRenderer(FieldFilter fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * @param mode {@code null} or {@code plain} for property maps, {@code rich} for {@link RichResultRenderer}
+     */
+    public static CypherResultRenderer forMode(String mode, FieldFilter fields) throws BadInputException {
+        if (mode == null || mode.equals("plain")) return new CypherResultRenderer(fields);
+        if (mode.equals("rich")) return new RichResultRenderer(fields);
+        throw new BadInputException("Unknown render mode " + mode + ", expected plain or rich");
+    }
+
+    public CypherResultRenderer withPaths(Paths paths) {
+        this.paths = paths;
+        return this;
+    }
+
+    /**
+     * @param maxRows rows after this are not read from the result, 0 for no limit
+     */
+    public CypherResultRenderer withMaxRows(int maxRows) {
+        this.maxRows = maxRows;
+        return this;
+    }
+
+    /**
+     * Checked before each row, with the policy {@code partial} the rows so far are the result when it is exceeded.
+     */
+    public CypherResultRenderer withBudget(LatencyBudget budget) {
+        this.budget = budget;
+        return this;
+    }
+
+    /**
+     * Measures the time spent pulling, converting and serializing rows in {@link #write}, for tracing.
+     */
+    public CypherResultRenderer withTimings() {
+        this.timed = true;
+        return this;
+    }
+
+    /**
+     * Continues the response of {@code previous}, which rendered an earlier result of the same call.
+     */
+    CypherResultRenderer after(CypherResultRenderer previous) {
+        return this;
+    }
+
+    public int getMaxRows() {
+        return maxRows;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the time spent pulling rows from the result, converting and serializing them, in ns
+     */
+    public long[] getTimings() {
+        return new long[]{iterateNanos, convertNanos, writeNanos};
+    }
+
+    /**
+     * @return {@link #TRUNCATED_ROWS}, {@link #TRUNCATED_BYTES} or {@link #TRUNCATED_BUDGET} if the last result was cut off because of a limit, otherwise null
+     */
+    public String getTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Writes the rows of the result as json, like {@link #render} would return them, without collecting them first.
+     * Stops pulling rows from the result when the row limit is reached or at least {@code maxBytes} bytes are written.
+     *
+     * @param maxBytes 0 for no limit
+     * @return false if the result had no rows, then nothing is written
+     */
+    public boolean write(ExecutionResult result, Deadline deadline, OutputStream out, long maxBytes) throws IOException {
+        try (ResourceIterator<Map<String, Object>> it = result.iterator()) {
+            if (!it.hasNext()) return false;
+            CountingOutputStream counted = new CountingOutputStream(out);
+            JsonGenerator gen = Utils.OBJECT_MAPPER.getJsonFactory().createJsonGenerator(counted, JsonEncoding.UTF8);
+            writeResult(gen, it, deadline, counted, maxBytes);
+            gen.close();
+            return true;
+        }
+    }
+
+    void writeResult(JsonGenerator gen, Iterator<Map<String, Object>> rows, Deadline deadline, CountingOutputStream out, long maxBytes) throws IOException {
+        gen.writeStartArray();
+        while (rows.hasNext()) {
+            deadline.check();
+            if (maxRows > 0 && rowCount == maxRows) {
+                truncated = TRUNCATED_ROWS;
+                break;
+            }
+            if (maxBytes > 0) {
+                // the generator buffers, only what it flushed is counted
+                gen.flush();
+                if (out.size() >= maxBytes) {
+                    truncated = TRUNCATED_BYTES;
+                    break;
+                }
+            }
+            if (overBudget()) break;
+            if (timed) {
+                long start = System.nanoTime();
+                Map<String, Object> row = rows.next();
+                long pulled = System.nanoTime();
+                Object converted = convertRow(row);
+                long done = System.nanoTime();
+                gen.writeObject(converted);
+                iterateNanos += pulled - start;
+                convertNanos += done - pulled;
+                writeNanos += System.nanoTime() - done;
+            } else {
+                gen.writeObject(convertRow(rows.next()));
+            }
+            rowCount++;
+        }
+        gen.writeEndArray();
+    }
 
     public Object render(ExecutionResult result) {
+        return render(result, Deadline.NONE);
+    }
+
+    public Object render(ExecutionResult result, Deadline deadline) {
         try (ResourceIterator<Map<String, Object>> it = result.iterator()) {
 
             Object object = null;
             if(it.hasNext()) {
+                deadline.check();
                 Map<String, Object> firstRow = it.next();
-                object = convertRows(it, firstRow);
+                object = convertRows(it, firstRow, deadline);
             }
 
             return object;
@@ -27,70 +204,108 @@ public class CypherResultRenderer {
         }
     }
 
-    Object convertRows(Iterator<Map<String, Object>> rows, Map<String, Object> firstRow) {
+    Object convertRows(Iterator<Map<String, Object>> rows, Map<String, Object> firstRow, Deadline deadline) {
         List<Object> list = new ArrayList<>();
         list.add(convertRow(firstRow));
         while (rows.hasNext()) {
+            deadline.check();
+            if (maxRows > 0 && list.size() == maxRows) {
+                truncated = TRUNCATED_ROWS;
+                break;
+            }
+            if (overBudget()) break;
             list.add(convertRow(rows.next()));
         }
+        rowCount = list.size();
         return list;
     }
 
+    // true if the rows so far are returned as partial result, throws if the budget is exceeded without that option
+    boolean overBudget() {
+        if (!budget.isExpired()) return false;
+        if (budget.getPolicy() != LatencyBudget.Policy.PARTIAL) throw budget.exceeded();
+        truncated = TRUNCATED_BUDGET;
+        return true;
+    }
+
     Object convertRow(Map<String, Object> row) {
         if (row.size()==1)
-            return convert(row.values().iterator().next());
+            return convert(row.values().iterator().next(), fields);
 
-        return convert(row);
+        return convert(row, fields);
     }
 
     Map<String,Object> convert(Map<String,Object> map) {
+        return convert(map, FieldFilter.ALL);
+    }
+
+    Map<String,Object> convert(Map<String,Object> map, FieldFilter filter) {
         Map<String,Object> result=new LinkedHashMap<>();
         for (Map.Entry<String, Object> entry : map.entrySet()) {
-            result.put(entry.getKey(), convert(entry.getValue()));
+            if (!filter.includes(entry.getKey())) continue;
+            result.put(entry.getKey(), convert(entry.getValue(), filter.get(entry.getKey())));
         }
         return result;
     }
 
     Object convert(Object value) {
+        return convert(value, FieldFilter.ALL);
+    }
+
+    Object convert(Object value, FieldFilter filter) {
         if (value == null) return null;
         if (value instanceof Map) {
-            return convert((Map<String, Object>) value);
+            return convert((Map<String, Object>) value, filter);
         }
         if (value instanceof Path) {
-            return convert(((Path) value).iterator());
+            return convert((Path) value, filter);
         }
         if (value instanceof Iterator) {
-            return convert((Iterator) value);
+            return convert((Iterator) value, filter);
         }
         if (value instanceof List) {
-            return convert((List<Object>) value);
+            return convert((List<Object>) value, filter);
         }
         if (value instanceof Iterable) {
-            return convert(((Iterable) value).iterator());
+            return convert(((Iterable) value).iterator(), filter);
         }
         if (value instanceof PropertyContainer) {
-            return convert((PropertyContainer) value);
+            return convert((PropertyContainer) value, filter);
         }
         return value;
     }
 
-    Object convert(List<Object> list) {
+    Object convert(Path path, FieldFilter filter) {
+        switch (paths) {
+            case STREAMED: return new StreamedPath(path, filter);
+            case COMPACT: return new CompactPath(path);
+            default: return convert(path.iterator(), filter);
+        }
+    }
+
+    Object convert(List<Object> list, FieldFilter filter) {
         ArrayList<Object> result = new ArrayList<>(list.size());
         for (Object element : list) {
-            result.add(convert(element));
+            result.add(convert(element, filter));
         }
         return result;
     }
 
-    Object convert(Iterator it) {
+    Object convert(Iterator it, FieldFilter filter) {
         List<Object> result = new ArrayList<>();
         while (it.hasNext()) {
-            result.add(convert(it.next()));
+            result.add(convert(it.next(), filter));
         }
         return result;
     }
 
     Map<String, Object> convert(PropertyContainer pc) {
+        return convert(pc, FieldFilter.ALL);
+    }
+
+    Map<String, Object> convert(PropertyContainer pc, FieldFilter filter) {
+        if (!filter.isAll()) return project(pc, filter);
+
         Iterator<String> keys = pc.getPropertyKeys().iterator();
         if (!keys.hasNext()) return Collections.EMPTY_MAP;
 
@@ -101,4 +316,104 @@ public class CypherResultRenderer {
         }
         return result;
     }
+
+    // only the requested properties are read from the store
+    private Map<String, Object> project(PropertyContainer pc, FieldFilter filter) {
+        Map<String, Object> result = new TreeMap<>();
+        for (String prop : filter.getFields()) {
+            Object value = pc.getProperty(prop, null);
+            if (value != null) result.put(prop, value);
+        }
+        return result;
+    }
+
+    // writes one element at a time, so only the current element is held in memory
+    class StreamedPath implements JsonSerializableWithType {
+        private final Path path;
+        private final FieldFilter filter;
+
+        StreamedPath(Path path, FieldFilter filter) {
+            this.path = path;
+            this.filter = filter;
+        }
+
+        @Override
+        public void serialize(JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartArray();
+            writeElements(gen);
+            gen.writeEndArray();
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator gen, SerializerProvider provider, TypeSerializer typeSer) throws IOException {
+            typeSer.writeTypePrefixForArray(this, gen);
+            writeElements(gen);
+            typeSer.writeTypeSuffixForArray(this, gen);
+        }
+
+        private void writeElements(JsonGenerator gen) throws IOException {
+            for (PropertyContainer element : path) {
+                gen.writeObject(convert(element, filter));
+            }
+        }
+    }
+
+    static class CompactPath implements JsonSerializableWithType {
+        private final Path path;
+
+        CompactPath(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public void serialize(JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject();
+            writeFields(gen);
+            gen.writeEndObject();
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator gen, SerializerProvider provider, TypeSerializer typeSer) throws IOException {
+            typeSer.writeTypePrefixForObject(this, gen);
+            writeFields(gen);
+            typeSer.writeTypeSuffixForObject(this, gen);
+        }
+
+        private void writeFields(JsonGenerator gen) throws IOException {
+            gen.writeArrayFieldStart("nodes");
+            for (Node node : path.nodes()) {
+                gen.writeNumber(node.getId());
+            }
+            gen.writeEndArray();
+            gen.writeArrayFieldStart("relationships");
+            for (Relationship rel : path.relationships()) {
+                gen.writeNumber(rel.getId());
+            }
+            gen.writeEndArray();
+        }
+    }
+
+    static class CountingOutputStream extends FilterOutputStream {
+        private long size;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        long size() {
+            return size;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            size++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            size += length;
+        }
+    }
 }
@@ -0,0 +1,149 @@
+package org.neo4j.cypher_rs;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * State shared by all requests against one database, the JAX-RS resources themselves are created per request.
+ */
+public class CypherRsContext {
+    public static final int READ_THREADS = Integer.getInteger("cypher_rs.read_threads", Runtime.getRuntime().availableProcessors());
+    public static final int READ_QUEUE = Integer.getInteger("cypher_rs.read_queue", 1000);
+
+    // the context references its database, so entries are only removed by close
+    private static final Map<GraphDatabaseService, CypherRsContext> CONTEXTS = new HashMap<>();
+
+    private final PlanningExecutionEngine engine;
+    private final Warmup warmup;
+    private final EndpointRegistry registry = new EndpointRegistry();
+    private final EndpointCatalog catalog = new EndpointCatalog(registry);
+    private final AdmissionControl admission = new AdmissionControl(AdmissionControl.MAX_CONCURRENT,
+            AdmissionControl.MAX_CONCURRENT_WRITES, AdmissionControl.MAX_QUEUE);
+    // reads run here instead of on the request threads, when the queue is full submissions are rejected
+    private final ThreadPoolExecutor readExecutor = new ThreadPoolExecutor(READ_THREADS, READ_THREADS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(READ_QUEUE), new NamedThreadFactory("cypher-rs-read"));
+    private final Coalescer coalescer = new Coalescer(Coalescer.MAX_WAIT);
+    private final BufferPool bufferPool = new BufferPool(BufferPool.CAPACITY, BufferPool.MAX_SIZE);
+    private final ResponseCache responseCache = new ResponseCache(ResponseCache.SIZE, ResponseCache.MAX_BYTES);
+    private final Metrics metrics = new Metrics(readExecutor, coalescer, bufferPool, responseCache);
+    private final Tracing tracing = new Tracing(Tracing.SAMPLE_RATE, Tracing.TRACE_FILE);
+    private final SlowLog slowLog;
+    private final EndpointExecutor executor;
+    private final DeadLetters deadLetters = new DeadLetters(DeadLetters.KEEP);
+
+    public static synchronized CypherRsContext forDatabase(GraphDatabaseService db) {
+        CypherRsContext context = CONTEXTS.get(db);
+        if (context == null) {
+            context = new CypherRsContext(db);
+            CONTEXTS.put(db, context);
+        }
+        return context;
+    }
+
+    /**
+     * Shuts down the context of the database, the next call of {@link #forDatabase} creates a new one.
+     */
+    public static synchronized void close(GraphDatabaseService db) {
+        CypherRsContext context = CONTEXTS.remove(db);
+        if (context != null) context.shutdown();
+    }
+
+    private CypherRsContext(GraphDatabaseService db) {
+        engine = new PlanningExecutionEngine(db);
+        warmup = new Warmup(db, engine);
+        slowLog = new SlowLog(db, engine, SlowLog.THRESHOLD, SlowLog.SIZE);
+        executor = new EndpointExecutor(db, engine, registry, admission, bufferPool, responseCache);
+    }
+
+    /**
+     * Shared by all calls, so that the plans cached at warm-up are used.
+     */
+    public PlanningExecutionEngine getEngine() {
+        return engine;
+    }
+
+    public EndpointRegistry getRegistry() {
+        return registry;
+    }
+
+    public EndpointCatalog getCatalog() {
+        return catalog;
+    }
+
+    public Warmup getWarmup() {
+        return warmup;
+    }
+
+    public AdmissionControl getAdmission() {
+        return admission;
+    }
+
+    public ExecutorService getReadExecutor() {
+        return readExecutor;
+    }
+
+    public Coalescer getCoalescer() {
+        return coalescer;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public Tracing getTracing() {
+        return tracing;
+    }
+
+    public SlowLog getSlowLog() {
+        return slowLog;
+    }
+
+    public EndpointExecutor getExecutor() {
+        return executor;
+    }
+
+    public DeadLetters getDeadLetters() {
+        return deadLetters;
+    }
+
+    private void shutdown() {
+        warmup.stop();
+        readExecutor.shutdownNow();
+        slowLog.shutdown();
+        responseCache.clear();
+        deadLetters.clear();
+        bufferPool.close();
+    }
+
+    static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.neo4j.cypher_rs;
+
+import org.apache.commons.configuration.Configuration;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.core.NodeManager;
+import org.neo4j.server.plugins.Injectable;
+import org.neo4j.server.plugins.PluginLifecycle;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Called by the server when the extension is loaded, warms up all stored endpoints.
+ * When the server stops, the thread pools and buffers of the extension are released.
+ */
+public class CypherRsLifecycle implements PluginLifecycle {
+    private GraphDatabaseService db;
+
+    @Override
+    public Collection<Injectable<?>> start(GraphDatabaseService db, Configuration config) {
+        this.db = db;
+        GraphDatabaseAPI api = (GraphDatabaseAPI) db;
+        CypherRsContext.forDatabase(api).getWarmup().warmAll(api.getDependencyResolver().resolveDependency(NodeManager.class).getGraphProperties());
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void stop() {
+        if (db != null) CypherRsContext.close(db);
+        db = null;
+    }
+}
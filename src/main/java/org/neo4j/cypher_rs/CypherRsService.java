@@ -1,28 +1,31 @@
 package org.neo4j.cypher_rs;
 
 
-import au.com.bytecode.opencsv.CSVReader;
-import org.neo4j.cypher.javacompat.ExecutionEngine;
-import org.neo4j.cypher.javacompat.ExecutionResult;
-import org.neo4j.cypher.javacompat.QueryStatistics;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
 import org.neo4j.graphdb.Transaction;
-import org.neo4j.helpers.collection.IteratorUtil;
 import org.neo4j.kernel.GraphDatabaseAPI;
 import org.neo4j.kernel.impl.core.GraphProperties;
 import org.neo4j.kernel.impl.core.NodeManager;
-import org.neo4j.server.database.CypherExecutor;
 import org.neo4j.server.database.Database;
 import org.neo4j.server.rest.repr.BadInputException;
 
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * @author Michael Hunger @since 09.10.13
@@ -32,24 +35,104 @@ import java.util.*;
 @Path("/")
 public class CypherRsService {
 
-    private final ExecutionEngine engine;
+    /** request parameters of GET calls that control the call instead of being passed to the query */
+    static final Set<String> CONTROL_PARAMS = new HashSet<>(Arrays.asList("timeout", "fields", "render", "paths"));
+    /** request parameters of PUT calls that are not stored as endpoint options */
+    static final Set<String> CREATE_PARAMS = new HashSet<>(Arrays.asList("activate"));
+    public static final String TRUNCATED_HEADER = "X-Cypher-Rs-Truncated";
+    public static final String DEGRADED_HEADER = "X-Cypher-Rs-Degraded";
+    public static final String TRACEPARENT = "traceparent";
+
+    private static final int SERVICE_UNAVAILABLE = 503;
+    private static final int GATEWAY_TIMEOUT = 504;
+
     private final GraphDatabaseAPI db;
     private final GraphProperties props;
+    private final CypherRsContext context;
+    private final AdmissionControl admission;
+    private final Metrics metrics;
+    private final EndpointRegistry registry;
+    private final EndpointCatalog catalog;
+    private final EndpointExecutor executor;
+    private final Tracing tracing;
+    private final SlowLog slowLog;
 
-    public CypherRsService(@Context CypherExecutor executor, @Context Database database) {
-        engine = executor.getExecutionEngine();
+    public CypherRsService(@Context Database database) {
         db = database.getGraph();
         props = db.getDependencyResolver().resolveDependency(NodeManager.class).getGraphProperties();
+        context = CypherRsContext.forDatabase(db);
+        admission = context.getAdmission();
+        metrics = context.getMetrics();
+        registry = context.getRegistry();
+        catalog = context.getCatalog();
+        executor = context.getExecutor();
+        tracing = context.getTracing();
+        slowLog = context.getSlowLog();
     }
 
     @PUT
     @Path("/{key}")
     @Consumes(MediaType.TEXT_PLAIN)
-    public Response createEndpoint(@PathParam("key") String key, String body, @Context UriInfo uriInfo) {
+    public Response createEndpoint(@PathParam("key") String key, String body, @Context UriInfo uriInfo, @DefaultValue("true") @QueryParam("activate") boolean activate) {
+        if (!Endpoint.isValidKey(key)) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Endpoint names must not start with " + Endpoint.RESERVED_PREFIX + " or contain @").build();
+        }
+        Endpoint endpoint;
+        try (Transaction tx = db.beginTx()) {
+            Map<String, Object> options = ParameterBinder.AUTO.bind(uriInfo.getQueryParameters(), CREATE_PARAMS);
+            ParameterBinder.parse(Endpoint.schema(options));
+            Endpoint.checkOptions(options);
+            LatencyBudget.Policy.parse(options.get("degrade"));
+            endpoint = Endpoint.create(props, key, body, options, activate);
+            tx.success();
+        } catch (BadInputException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Response.serverError().entity(e.getMessage()).build();
+        }
+        registry.invalidate();
+        context.getWarmup().warm(endpoint);
+        return Response.created(uriInfo.getAbsolutePath())
+                .contentLocation(uriInfo.getBaseUriBuilder().path(endpoint.getId()).build()).build();
+    }
+
+    @PUT
+    @Path("/{key}/active")
+    @Consumes(MediaType.TEXT_PLAIN)
+    public Response activateEndpoint(@PathParam("key") String key, String version) {
+        Endpoint endpoint;
+        try (Transaction tx = db.beginTx()) {
+            endpoint = Endpoint.isValidKey(key) ? Endpoint.load(props, key, Integer.parseInt(version.trim())) : null;
+            if (endpoint == null) return notFound();
+            Endpoint.activate(props, endpoint);
+            tx.success();
+        } catch (NumberFormatException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+        registry.invalidate();
+        context.getWarmup().warm(endpoint);
+        return Response.ok().build();
+    }
+
+    @GET
+    @Path("/{key}/versions")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response endpointVersions(@PathParam("key") String key) {
         try (Transaction tx = db.beginTx()) {
-            props.setProperty(key, body);
+            if (!Endpoint.isValidKey(key) || !props.hasProperty(key)) return notFound();
+            Map<String, Object> versions = new LinkedHashMap<>();
+            for (Endpoint endpoint : Endpoint.loadVersions(props, key)) {
+                versions.put(String.valueOf(endpoint.getVersion()), endpoint.toMap());
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("active", Endpoint.activeVersion(props, key));
+            result.put("versions", versions);
             tx.success();
-            return Response.created(uriInfo.getRequestUri()).build();
+            return Response.ok(Utils.toJson(result)).build();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Response.serverError().entity(e.getMessage()).build();
         }
     }
 
@@ -57,65 +140,249 @@ public class CypherRsService {
     @Path("/{key}")
     @Produces(MediaType.APPLICATION_JSON)
     public Response removeEndpoint(@PathParam("key") String key) {
+        boolean removed;
         try (Transaction tx = db.beginTx()) {
-            if (props.hasProperty(key)) {
-                props.removeProperty(key);
-                tx.success();
-                return Response.ok().build();
-            }
+            removed = Endpoint.remove(props, key);
+            if (removed) tx.success();
         }
-        return notFound();
+        if (!removed) return notFound();
+        registry.invalidate();
+        admission.forget(key);
+        context.getWarmup().forget(key);
+        slowLog.forget(key);
+        catalog.forget(key);
+        context.getResponseCache().forget(key);
+        return Response.ok().build();
     }
 
     @GET
     @Path("/{key}")
-    @Produces(MediaType.APPLICATION_JSON)
-    public Response readEndpoint(@PathParam("key") String key, @Context UriInfo uriInfo) {
+    @Produces({MediaType.APPLICATION_JSON, ResultStream.NDJSON, ResultStream.EVENT_STREAM})
+    public Response readEndpoint(@PathParam("key") final String key, @Context UriInfo uriInfo, @Context Request request,
+                                 @HeaderParam(TRACEPARENT) String traceparent, @HeaderParam(HttpHeaders.ACCEPT) String accept) {
+        final long start = System.nanoTime();
+        // UriInfo is bound to the request thread
+        final MultivaluedMap<String, String> queryParameters = uriInfo.getQueryParameters();
+        final Invocation invocation = new Invocation("GET", tracing.start("GET /" + key, traceparent));
+        boolean head = request.getMethod().equals(HttpMethod.HEAD);
+        ResultStream.Format format = ResultStream.Format.fromAccept(accept);
+        if (format != null) {
+            Response response = streamRead(key, queryParameters, format, invocation, start);
+            if (isStream(response)) {
+                // Jersey doesn't write the stream of HEAD requests, so these calls end with their headers
+                if (!head) return response;
+                response = withoutBody(response);
+            }
+            return finish(invocation, key, timed(metrics.getReads(), key, invocation, start, response));
+        }
+        // identical calls share the response of the one running, their time is spent in this phase
+        invocation.phase("coalesce");
+        Response response = coalesce(Coalescer.key(key, queryParameters), waitLimit(queryParameters), new Callable<Response>() {
+            public Response call() {
+                invocation.phase("queue");
+                return executeRead(new Callable<Response>() {
+                    public Response call() {
+                        invocation.endPhase();
+                        return read(key, queryParameters, invocation, start);
+                    }
+                });
+            }
+        });
+        if (head) response = withoutBody(response);
+        return finish(invocation, key, timed(metrics.getReads(), key, invocation, start, response));
+    }
+
+    private Response coalesce(String key, long timeout, Callable<Response> read) {
+        try {
+            return context.getCoalescer().call(key, timeout, read);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Response.serverError().entity(e.getMessage()).build();
+        }
+    }
+
+    // a call waits for an identical one at most as long as its own timeout, the endpoint's limit is not known yet
+    private static long waitLimit(MultivaluedMap<String, String> queryParameters) {
+        String timeout = queryParameters.getFirst("timeout");
+        try {
+            return timeout == null ? Deadline.DEFAULT_TIMEOUT : Long.parseLong(timeout);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private Response streamRead(String key, MultivaluedMap<String, String> queryParameters, ResultStream.Format format, Invocation invocation, long start) {
         try (Transaction tx = db.beginTx()) {
-            if (props.hasProperty(key)) {
-                String query = (String) props.getProperty(key);
-                if (Utils.isWriteQuery(query)) return Response.status(Response.Status.NOT_ACCEPTABLE).build();
-                Map<String, Object> params = Utils.toParams(uriInfo.getQueryParameters());
-                ExecutionResult result = engine.execute(query, params);
-                String json = Utils.toJson(result);
-                
-                tx.success();
-                
-                if(json == null)
-                    return noContent();
-                
-                return Response.ok(json).build();
+            Endpoint endpoint = executor.lookup(key);
+            if (endpoint == null) return notFound();
+            if (Utils.isWriteQuery(endpoint.getQuery())) return Response.status(Response.Status.NOT_ACCEPTABLE).build();
+            MultivaluedMap<String, String> controls = controls(endpoint, queryParameters);
+            Map<String, Object> params = executor.bind(endpoint, queryParameters, controls.keySet());
+            EndpointCall call = call(endpoint, Collections.singletonList(params), controls.getFirst("timeout"),
+                    controls.get("fields"), controls.getFirst("render"), controls.getFirst("paths"), invocation)
+                    .withBudget(start);
+            return stream(key, call, false, format, metrics.getReads(), start);
+        } catch (BadInputException | NumberFormatException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+    }
+
+    /**
+     * The rows are streamed after this returns, metrics, trace and slow log are updated when the stream is done.
+     * Errors found before that are returned with their status, later ones, also rejections by the admission control,
+     * are sent as the last message of the stream.
+     */
+    private Response stream(final String key, EndpointCall call, boolean write, ResultStream.Format format,
+                            final LatencyStats stats, final long start) throws BadInputException {
+        final Invocation invocation = call.getInvocation();
+        ResultStream stream = new ResultStream(db, executor, call, write, format, write ? null : context.getReadExecutor()) {
+            @Override
+            protected void finished(int status, int rows) {
+                invocation.addRows(rows);
+                record(stats, key, start, status, rows, null);
+                finish(invocation, key, status);
+            }
+        };
+        invocation.phase("stream");
+        return Response.ok(stream, format.getMediaType()).build();
+    }
+
+    // timeout, fields, render and paths control GET calls, unless the endpoint's query has parameters of these names
+    private static MultivaluedMap<String, String> controls(Endpoint endpoint, MultivaluedMap<String, String> queryParameters) {
+        MultivaluedMap<String, String> result = new MultivaluedMapImpl();
+        for (String name : CONTROL_PARAMS) {
+            if (queryParameters.containsKey(name) && !endpoint.getParameterNames().contains(name)) {
+                result.put(name, queryParameters.get(name));
             }
+        }
+        return result;
+    }
+
+    /**
+     * The call as asked for with the control parameters, the invocation gets the endpoint and the first parameter set,
+     * which stands for all of them in the slow log.
+     */
+    private EndpointCall call(Endpoint endpoint, List<Map<String, Object>> params, String timeout, List<String> fields,
+                              String render, String paths, Invocation invocation) throws BadInputException {
+        invocation.setEndpoint(endpoint);
+        if (!params.isEmpty()) invocation.setParams(params.get(0));
+        return new EndpointCall(endpoint, params)
+                .withTimeout(timeout)
+                .withRender(render, FieldFilter.parse(fields))
+                .withPaths(CypherResultRenderer.Paths.parse(paths))
+                .withInvocation(invocation);
+    }
+
+    private boolean isStream(Response response) {
+        return response.getEntity() instanceof ResultStream;
+    }
+
+    /**
+     * Runs reads on the read pool, which bounds how many run at once and rejects them when its queue is full.
+     * Jersey 1.x has no asynchronous responses, so the request thread still waits for the result, reads are kept from
+     * being starved by writes and imports through their separate admission limit.
+     */
+    private Response executeRead(Callable<Response> read) {
+        try {
+            return context.getReadExecutor().submit(read).get();
+        } catch (RejectedExecutionException e) {
+            return rejected(new RejectedException(SERVICE_UNAVAILABLE, AdmissionControl.RETRY_AFTER, "Too many queued reads"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Response.serverError().entity(e.getMessage()).build();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            return Response.serverError().entity(e.getCause().getMessage()).build();
+        }
+    }
+
+    /**
+     * @param start when the request arrived, the latency budget of the endpoint counts from there
+     */
+    private Response read(String key, MultivaluedMap<String, String> queryParameters, Invocation invocation, long start) {
+        // reads don't change anything, so the transaction is just released instead of committed
+        try (Transaction tx = db.beginTx()) {
+            Endpoint endpoint = executor.lookup(key);
+            if (endpoint == null) return notFound();
+            if (Utils.isWriteQuery(endpoint.getQuery())) return Response.status(Response.Status.NOT_ACCEPTABLE).build();
+            MultivaluedMap<String, String> controls = controls(endpoint, queryParameters);
+            invocation.setEndpoint(endpoint);
+            Trace.Span span = invocation.phase("bind");
+            Map<String, Object> params = executor.bind(endpoint, queryParameters, controls.keySet());
+            span.set("params", params.size());
+            EndpointCall call = call(endpoint, Collections.singletonList(params), controls.getFirst("timeout"),
+                    controls.get("fields"), controls.getFirst("render"), controls.getFirst("paths"), invocation)
+                    .withBudget(start)
+                    .withKey(Coalescer.key(endpoint.getId(), queryParameters, "timeout"));
+            invocation.endPhase();
+            EndpointExecutor.Rendered rendered = executor.render(call);
+            if (rendered.getBody() == null) return noContent();
+            Response.ResponseBuilder builder = Response.ok(rendered.getBody());
+            if (rendered.getAge() >= 0) builder.header(DEGRADED_HEADER, "cached").header("Age", rendered.getAge());
+            return truncated(builder, rendered.getTruncated()).build();
+        } catch (RejectedException e) {
+            return rejected(e);
+        } catch (QueryTimeoutException e) {
+            return timedOut(e);
+        } catch (BadInputException | NumberFormatException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
         } catch(Exception e) {
             e.printStackTrace();
             return Response.serverError().entity(e.getMessage()).build();
         }
-        return notFound();
     }
 
     @POST
     @Path("/{key}")
     @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
-    public Response writeEndpoint(@PathParam("key") String key, String body) {
+    @Produces({MediaType.APPLICATION_JSON, ResultStream.NDJSON, ResultStream.EVENT_STREAM})
+    public Response writeEndpoint(@PathParam("key") String key, String body, @QueryParam("timeout") String timeout,
+                                  @QueryParam("fields") List<String> fields, @QueryParam("render") String render,
+                                  @QueryParam("paths") String paths, @QueryParam("stats") String stats,
+                                  @HeaderParam(TRACEPARENT) String traceparent, @HeaderParam(HttpHeaders.ACCEPT) String accept) {
+        long start = System.nanoTime();
+        if (stats != null) {
+            if (!stats.equals("only")) return Response.status(Response.Status.BAD_REQUEST).entity("Unknown stats mode " + stats + ", expected only").build();
+            return timed(metrics.getWrites(), key, null, start, writeStats(key, body, timeout));
+        }
+        Invocation invocation = new Invocation("POST", tracing.start("POST /" + key, traceparent));
+        ResultStream.Format format = ResultStream.Format.fromAccept(accept);
+        Response response = format == null
+                ? write(key, body, timeout, fields, render, paths, invocation)
+                : streamWrite(key, body, timeout, fields, render, paths, format, invocation, start);
+        if (isStream(response)) return response;
+        return finish(invocation, key, timed(metrics.getWrites(), key, invocation, start, response));
+    }
+
+    private Response streamWrite(String key, String body, String timeout, List<String> fields, String render, String paths,
+                                 ResultStream.Format format, Invocation invocation, long start) {
         try (Transaction tx = db.beginTx()) {
-            if (props.hasProperty(key)) {
-                List<Map<String, Object>> params = Utils.toParams(body);
-                List<Object> results=new ArrayList<>();
-                String query = (String) props.getProperty(key);
-                for (Map<String, Object> param : params) {
-                    ExecutionResult result = engine.execute(query, param);
-                    results.add(Utils.toObject(result));
-                }
+            Endpoint endpoint = executor.lookup(key);
+            if (endpoint == null) return notFound();
+            EndpointCall call = call(endpoint, Utils.toParams(body), timeout, fields, render, paths, invocation);
+            return stream(key, call, true, format, metrics.getWrites(), start);
+        } catch (BadInputException | NumberFormatException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+    }
+
+    /**
+     * Like {@link #write} but only returns the summed statistics and row counts, the results are not rendered.
+     */
+    private Response writeStats(String key, String body, String timeout) {
+        try (Transaction tx = db.beginTx()) {
+            Endpoint endpoint = executor.lookup(key);
+            if (endpoint != null) {
+                EndpointCall call = new EndpointCall(endpoint, Utils.toParams(body)).withTimeout(timeout);
+                UpdateStatistics stats = executor.stats(call);
                 tx.success();
-                
-                Object retVal = singleOrList(results);
-                if(retVal == null)
-                    return noContent();
-                
-                return Response.ok(Utils.toJson(retVal)).build();
+                return Response.ok(Utils.toJson(stats.toMap())).build();
             }
-        } catch (BadInputException e) {
+        } catch (RejectedException e) {
+            return rejected(e);
+        } catch (QueryTimeoutException e) {
+            return timedOut(e);
+        } catch (BadInputException | NumberFormatException e) {
             return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
         } catch (Exception e) {
             e.printStackTrace();
@@ -124,109 +391,226 @@ public class CypherRsService {
         return notFound();
     }
 
-    private Object singleOrList(List<Object> results) {
-        if (results.size() == 1) return results.get(0);
-        return results;
+    private Response write(String key, String body, String timeout, List<String> fields, String render, String paths, Invocation invocation) {
+        try (Transaction tx = db.beginTx()) {
+            Endpoint endpoint = executor.lookup(key);
+            if (endpoint == null) return notFound();
+            invocation.setEndpoint(endpoint);
+            Trace.Span span = invocation.phase("bind");
+            List<Map<String, Object>> params = Utils.toParams(body);
+            span.set("params", params.size());
+            EndpointCall call = call(endpoint, params, timeout, fields, render, paths, invocation);
+            BufferPool.Output out = context.getBufferPool().newOutput();
+            try {
+                EndpointExecutor.Rendered rendered = executor.renderAll(call, out);
+                tx.success();
+                if (rendered.getBody() == null) return noContent();
+                return truncated(Response.ok(out.toEntity()), rendered.getTruncated()).build();
+            } finally {
+                out.discard();
+            }
+        } catch (RejectedException e) {
+            return rejected(e);
+        } catch (QueryTimeoutException e) {
+            return timedOut(e);
+        } catch (BadInputException | NumberFormatException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Response.serverError().entity(e.getMessage()).build();
+        }
     }
 
     @POST
-    @Path("/{key}")
-    @Consumes(MediaType.TEXT_PLAIN)
+    @Path("/_batch")
+    @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    public Response writeCsvEndpoint(@PathParam("key") String key, Reader body, @QueryParam("delim") String delim, @QueryParam("batch") String batch) {
-        int batchSize = 30000, count = 0;
-        if (batch!=null) batchSize = Integer.parseInt(batch);
-        Transaction tx = db.beginTx();
+    @SuppressWarnings("unchecked")
+    public Response batch(String body, @QueryParam("timeout") String timeout) {
         try {
-            if (props.hasProperty(key)) {
-                String query = (String) props.getProperty(key);
-                if (delim==null) delim=",";
-                CSVReader reader = new CSVReader(body, delim.charAt(0),'"','\\',0,false,false);
-                Map<String,Integer> stats = toMap(0,"nodes_created","nodes_deleted","relationships_created","relationships_deleted","labels_added","labels_removed","properties_set","rows");
-                Map<String,Object> header= toMap(null,reader.readNext());
-                for (String[] row = reader.readNext(); row != null; row = reader.readNext()) {
-                    ExecutionResult result = engine.execute(query, toParams(header,row));
-                    accumulateStats(stats, result);
-                    if (++count % batchSize == 0) {
-                        tx.success();tx.close(); tx = db.beginTx();
+            List<Map<String, Object>> calls = Utils.toParams(body);
+            if (calls.size() > Batch.MAX_SIZE) {
+                return Response.status(Response.Status.BAD_REQUEST).entity("Batch exceeds " + Batch.MAX_SIZE + " calls").build();
+            }
+            List<Batch.Entry> entries = new ArrayList<>(calls.size());
+            try (Transaction tx = db.beginTx()) {
+                for (Map<String, Object> call : calls) {
+                    Object key = call.get("endpoint");
+                    Endpoint endpoint = key instanceof String ? executor.lookup((String) key) : null;
+                    if (endpoint == null) {
+                        return Response.status(Response.Status.NOT_FOUND).entity("Unknown endpoint " + key).build();
                     }
+                    entries.add(new Batch.Entry(endpoint, (Map<String, Object>) call.get("params")));
                 }
                 tx.success();
-                return Response.ok(Utils.toJson(stats)).build();
             }
-        } catch (IOException e) {
+            return Response.ok(new Batch(db, executor, context.getReadExecutor(), entries, timeout)).build();
+        } catch (BadInputException | ClassCastException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Response.serverError().entity(e.getMessage()).build();
+        }
+    }
+
+    @POST
+    @Path("/{key}")
+    @Consumes(MediaType.TEXT_PLAIN)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response writeCsvEndpoint(@PathParam("key") String key, Reader body, @QueryParam("delim") String delim, @QueryParam("batch") String batch, @QueryParam("timeout") String timeout,
+                                     @QueryParam("errors") String errors, @QueryParam("maxErrors") String maxErrors, @Context UriInfo uriInfo,
+                                     @QueryParam("sort") String sort, @DefaultValue("false") @QueryParam("group") boolean group) {
+        long start = System.nanoTime();
+        return timed(metrics.getWrites(), key, null, start, importLines(key, body, delim == null ? "," : delim, batch, timeout, errors, maxErrors, uriInfo, sort, group));
+    }
+
+    @POST
+    @Path("/{key}")
+    @Consumes(ResultStream.NDJSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response writeNdjsonEndpoint(@PathParam("key") String key, Reader body, @QueryParam("batch") String batch, @QueryParam("timeout") String timeout,
+                                        @QueryParam("errors") String errors, @QueryParam("maxErrors") String maxErrors, @Context UriInfo uriInfo) {
+        long start = System.nanoTime();
+        return timed(metrics.getWrites(), key, null, start, importLines(key, body, null, batch, timeout, errors, maxErrors, uriInfo, null, false));
+    }
+
+    /**
+     * @param delim the CSV delimiter, null for NDJSON
+     * @param errors {@code deadletter} to commit around failing lines and collect them in a dead-letter file, null to stop at the first
+     * @param sort comma separated CSV columns to order the lines by, see {@link SortedSource}
+     */
+    private Response importLines(String key, Reader body, String delim, String batch, String timeout, String errors, String maxErrors, UriInfo uriInfo,
+                                 String sort, boolean group) {
+        SortedSource sorted = null;
+        try {
+            if (group && sort == null) {
+                return Response.status(Response.Status.BAD_REQUEST).entity("Grouping needs the columns to sort by").build();
+            }
+            if (errors != null && !errors.equals("deadletter")) {
+                return Response.status(Response.Status.BAD_REQUEST).entity("Unknown errors mode " + errors + ", expected deadletter").build();
+            }
+            Endpoint endpoint;
+            try (Transaction tx = db.beginTx()) {
+                endpoint = executor.lookup(key);
+            }
+            if (endpoint == null) return notFound();
+            BatchSizer sizer = BatchSizer.parse(batch);
+            try (AdmissionControl.Ticket ticket = executor.admit(endpoint)) {
+                BatchImporter importer = new BatchImporter(db, executor, endpoint, sizer, Deadline.forEndpoint(endpoint, timeout));
+                if (errors != null) {
+                    importer.withDeadLetters(context.getDeadLetters(), maxErrors == null ? BatchImporter.MAX_ERRORS : Integer.parseInt(maxErrors));
+                }
+                BatchImporter.Source source = delim == null ? BatchImporter.ndjson(body) : BatchImporter.csv(body, delim.charAt(0));
+                if (sort != null) source = sorted = new SortedSource(source, Arrays.asList(sort.split(",")), SortedSource.BUFFER, group);
+                Map<String, Object> result = importer.run(source);
+                if (importer.getDeadLetterId() != null) {
+                    result.put("deadletter", uriInfo.getBaseUriBuilder().path("_deadletter").path(importer.getDeadLetterId()).build().toString());
+                }
+                // the lines committed so far stay committed
+                Response.Status status = importer.getAborted() == null ? Response.Status.OK : Response.Status.BAD_REQUEST;
+                return Response.status(status).entity(Utils.toJson(result)).build();
+            }
+        } catch (RejectedException e) {
+            return rejected(e);
+        } catch (QueryTimeoutException e) {
+            return timedOut(e);
+        } catch (BatchImporter.ImportException e) {
+            return Response.serverError().entity(e.getMessage()).build();
+        } catch (IOException | NumberFormatException | BadInputException e) {
             return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
         } catch (Exception e) {
             e.printStackTrace();
             return Response.serverError().entity(e.getMessage()).build();
         } finally {
-            tx.close();
+            close(sorted);
             close(body);
         }
-        return notFound();
     }
 
-    private void close(Reader reader) {
+    private void close(Closeable closeable) {
+        if (closeable == null) return;
         try {
-            reader.close();
+            closeable.close();
         } catch (IOException e) {
             // ignore
         }
     }
 
-    private void accumulateStats(Map<String, Integer> data, ExecutionResult result) {
-        QueryStatistics stats = result.getQueryStatistics();
-        if (stats==null || !stats.containsUpdates()) return;
-        // "nodes_created","nodes_deleted","relationships_created","relationships_deleted",
-        // "labels_added","labels_removed","properties_set","rows"
+    @GET
+    @Path("/_deadletter/{id}")
+    @Produces("text/csv")
+    public Response deadLetter(@PathParam("id") String id) {
+        File file = context.getDeadLetters().get(id);
+        if (file == null) return notFound();
+        return Response.ok(file).build();
+    }
 
-        add(data, stats.getNodesCreated(), stats.getDeletedNodes(), stats.getRelationshipsCreated(), stats.getDeletedRelationships(),
-                stats.getLabelsAdded(), stats.getLabelsRemoved(), stats.getPropertiesSet(), IteratorUtil.count(result));
+    @DELETE
+    @Path("/_deadletter/{id}")
+    public Response removeDeadLetter(@PathParam("id") String id) {
+        if (!context.getDeadLetters().remove(id)) return notFound();
+        return Response.ok().build();
     }
 
     @GET
     @Path("/")
     @Produces(MediaType.APPLICATION_JSON)
     public Response listEndpoints(@DefaultValue("false") @QueryParam("full") boolean isFull) {
-        
-        Transaction tx = db.beginTx();
-        try {
-            
-            String json;
-            if(isFull) {
-                
-                Map<String, Object> m = new HashMap<>(2);
-                
-                for(String key : props.getPropertyKeys()) {
-                    
-                    m.put(key, props.getProperty(key));
-                }
-                
-                json = Utils.toJson(m);
-            } else {
-                json = Utils.toJson(props.getPropertyKeys());
-            }
+        try (Transaction tx = db.beginTx()) {
+            String json = isFull ? Utils.toJson(catalog.queries(props)) : Utils.toJson(catalog.keys(props));
             tx.success();
             return Response.ok(json).build();
         } catch(Exception e) {
-            tx.failure();
             e.printStackTrace();
             return Response.serverError().entity(e.getMessage()).build();
-        } finally {
-            tx.close();
+        }
+    }
+
+    @GET
+    @Path("/_catalog")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response catalog() {
+        try (Transaction tx = db.beginTx()) {
+            String json = Utils.toJson(catalog.toMap(props));
+            tx.success();
+            return Response.ok(json).build();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return Response.serverError().entity(e.getMessage()).build();
         }
     }
     
+    @GET
+    @Path("/_metrics")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response metrics() throws IOException {
+        return Response.ok(Utils.toJson(metrics.toMap())).build();
+    }
+
+    @GET
+    @Path("/_slow")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response slow() throws IOException {
+        return Response.ok(Utils.toJson(slowLog.toMap())).build();
+    }
+
+    @GET
+    @Path("/_status")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response status() throws IOException {
+        return Response.ok(Utils.toJson(context.getWarmup().toMap())).build();
+    }
+
     @GET
     @Path("/{key}/query")
     @Produces(MediaType.TEXT_PLAIN)
     public Response endpointsDetails(@PathParam("key") String key) {
         Transaction tx = db.beginTx();
         try {
-            if (props.hasProperty(key)) {
-                String query = (String) props.getProperty(key);
+            Endpoint endpoint = executor.lookup(key);
+            if (endpoint != null) {
                 tx.success();
-                return Response.ok(query).build();
+                return Response.ok(endpoint.getQuery()).build();
             }
         } catch(Exception e) {
             tx.failure();
@@ -239,26 +623,53 @@ public class CypherRsService {
         return notFound();
     }
     
-    private <T> Map<String, T> toMap(T value,String...row) {
-        Map<String, T> result = new LinkedHashMap<>(row.length);
-        for (String field : row) {
-            result.put(field,value);
-        }
-        return result;
+    /**
+     * @param invocation for the rows returned, null if the call doesn't return rows
+     */
+    private Response timed(LatencyStats stats, String key, Invocation invocation, long start, Response response) {
+        Object entity = response.getEntity();
+        // calls that shared the response of another one didn't run the query, their rows were counted there
+        int rows = invocation == null || invocation.getEndpoint() == null ? -1 : invocation.getRows();
+        record(stats, key, start, response.getStatus(), rows, entity instanceof String ? (String) entity : null);
+        return response;
     }
 
-    private Map<String, Object> toParams(Map<String, Object> params, String[] row) {
-        int i=0;
-        for (Map.Entry<String, Object> entry : params.entrySet()) {
-            entry.setValue(Utils.convertIfNeeded(row[i++]));
-        }
-        return params;
+    private void record(LatencyStats stats, String key, long start, int status, int rows, String error) {
+        long nanos = System.nanoTime() - start;
+        stats.record(nanos, status >= 500);
+        catalog.record(key, nanos, status, rows, error);
     }
-    private void add(Map<String, Integer> data, int...stats) {
-        int i=0;
-        for (Map.Entry<String, Integer> entry : data.entrySet()) {
-            entry.setValue(entry.getValue() + stats[i++]);
-        }
+
+    private Response finish(Invocation invocation, String key, Response response) {
+        finish(invocation, key, response.getStatus());
+        return response;
+    }
+
+    private void finish(Invocation invocation, String key, int status) {
+        invocation.endPhase();
+        Trace trace = invocation.getTrace();
+        trace.getRoot().set("endpoint", key).set("status", status).set("rows", invocation.getRows());
+        trace.end();
+        slowLog.record(invocation, status);
+    }
+
+    // Jersey doesn't write the body of HEAD requests, so a pooled body is released here
+    private Response withoutBody(Response response) {
+        Object entity = response.getEntity();
+        if (entity instanceof BufferPool.Entity) ((BufferPool.Entity) entity).release();
+        return Response.fromResponse(response).entity(null).build();
+    }
+
+    private Response.ResponseBuilder truncated(Response.ResponseBuilder builder, String truncated) {
+        return truncated == null ? builder : builder.header(TRUNCATED_HEADER, truncated);
+    }
+
+    private Response rejected(RejectedException e) {
+        return Response.status(e.getStatus()).header("Retry-After", e.getRetryAfter()).entity(e.getMessage()).build();
+    }
+
+    private Response timedOut(QueryTimeoutException e) {
+        return Response.status(GATEWAY_TIMEOUT).entity(e.getMessage()).build();
     }
 
     private Response notFound() {
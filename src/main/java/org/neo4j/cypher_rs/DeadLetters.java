@@ -0,0 +1,99 @@
+package org.neo4j.cypher_rs;
+
+import au.com.bytecode.opencsv.CSVWriter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Temporary CSV files with the lines that imports rejected, kept for download until more than {@link #KEEP} exist,
+ * then the oldest are deleted, the rest when the database shuts down.
+ *
+ * Columns: _line, _error and the columns of the imported data, for NDJSON imports the json of each line in {@code json}.
+ */
+public class DeadLetters {
+    public static final int KEEP = Integer.getInteger("cypher_rs.deadletter_keep", 100);
+
+    private final int keep;
+    private final Map<String, File> files = new LinkedHashMap<>();
+
+    public DeadLetters(int keep) {
+        this.keep = keep;
+    }
+
+    public synchronized DeadLetter create(String[] columns) throws IOException {
+        String id = UUID.randomUUID().toString();
+        File file = File.createTempFile("cypher-rs-deadletter-", ".csv");
+        files.put(id, file);
+        for (Iterator<File> it = files.values().iterator(); files.size() > keep && it.hasNext(); ) {
+            delete(it.next());
+            it.remove();
+        }
+        return new DeadLetter(id, file, columns);
+    }
+
+    /**
+     * @return the file or null if there is none with this id, or it was deleted already
+     */
+    public synchronized File get(String id) {
+        return files.get(id);
+    }
+
+    public synchronized boolean remove(String id) {
+        File file = files.remove(id);
+        if (file == null) return false;
+        delete(file);
+        return true;
+    }
+
+    public synchronized void clear() {
+        for (File file : files.values()) {
+            delete(file);
+        }
+        files.clear();
+    }
+
+    // only files that can't be deleted now, e.g. while being downloaded on Windows, are left to the JVM's exit
+    private void delete(File file) {
+        if (!file.delete()) file.deleteOnExit();
+    }
+
+    public static class DeadLetter implements Closeable {
+        private final String id;
+        private final CSVWriter writer;
+
+        DeadLetter(String id, File file, String[] columns) throws IOException {
+            this.id = id;
+            this.writer = new CSVWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+            writer.writeNext(row("_line", "_error", columns));
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public void write(int line, String error, String[] values) {
+            writer.writeNext(row(String.valueOf(line), error, values));
+        }
+
+        private String[] row(String line, String error, String[] values) {
+            String[] row = new String[values.length + 2];
+            row[0] = line;
+            row[1] = error;
+            System.arraycopy(values, 0, row, 2, values.length);
+            return row;
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+}
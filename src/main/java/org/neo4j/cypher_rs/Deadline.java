@@ -0,0 +1,42 @@
+package org.neo4j.cypher_rs;
+
+/**
+ * Maximum execution time of a single endpoint call, checked while the result is consumed.
+ * The endpoint option {@code timeout} (ms) caps the time a request may ask for with its own {@code timeout} parameter.
+ */
+public class Deadline {
+    public static final int DEFAULT_TIMEOUT = Integer.getInteger("cypher_rs.timeout", 0);
+    public static final Deadline NONE = new Deadline(0, Long.MAX_VALUE);
+
+    private final long timeout;
+    private final long end;
+
+    private Deadline(long timeout, long end) {
+        this.timeout = timeout;
+        this.end = end;
+    }
+
+    public static Deadline of(long timeout) {
+        if (timeout <= 0) return NONE;
+        return new Deadline(timeout, System.currentTimeMillis() + timeout);
+    }
+
+    public static Deadline forEndpoint(Endpoint endpoint, String requested) {
+        long max = endpoint.intOption("timeout", DEFAULT_TIMEOUT);
+        long timeout = requested == null ? max : Long.parseLong(requested);
+        if (max > 0 && (timeout <= 0 || timeout > max)) timeout = max;
+        return of(timeout);
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public boolean isExpired() {
+        return this != NONE && System.currentTimeMillis() > end;
+    }
+
+    public void check() {
+        if (isExpired()) throw new QueryTimeoutException("Query exceeded timeout of " + timeout + " ms");
+    }
+}
@@ -0,0 +1,265 @@
+package org.neo4j.cypher_rs;
+
+import org.neo4j.kernel.impl.core.GraphProperties;
+import org.neo4j.server.rest.repr.BadInputException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A stored endpoint: one immutable version of its cypher query and the options it was registered with.
+ *
+ * Every PUT stores a new version as json under {@code _def.<key>@<version>}, the active version is
+ * a single pointer property {@code _active.<key>}, so switching versions is one atomic write.
+ * The graph property named like the endpoint holds the query of the active version, endpoints stored
+ * before versioning only have this property and are treated as version 0.
+ * Every change updates the stamp {@code _stamp}, which lets server instances notice changes made by others.
+ * Keys starting with an underscore are reserved for internal use.
+ */
+public class Endpoint {
+    public static final String RESERVED_PREFIX = "_";
+    public static final String VERSION_SEPARATOR = "@v";
+    static final String DEFINITION_PREFIX = RESERVED_PREFIX + "def.";
+    static final String ACTIVE_PREFIX = RESERVED_PREFIX + "active.";
+    static final String LATEST_PREFIX = RESERVED_PREFIX + "latest.";
+    static final String STAMP = RESERVED_PREFIX + "stamp";
+
+    private final String key;
+    private final int version;
+    private final String query;
+    private final Map<String, Object> options;
+    private volatile ParameterBinder binder;
+    private volatile Set<String> parameterNames;
+
+    public Endpoint(String key, String query, Map<String, Object> options) {
+        this(key, 0, query, options);
+    }
+
+    public Endpoint(String key, int version, String query, Map<String, Object> options) {
+        this.key = key;
+        this.version = version;
+        this.query = query;
+        this.options = options == null ? Collections.<String, Object>emptyMap() : options;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return key and version, e.g. {@code users@v3}, also the name to call this version with
+     */
+    public String getId() {
+        return key + VERSION_SEPARATOR + version;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public Map<String, Object> getOptions() {
+        return options;
+    }
+
+    /**
+     * @return the binder for the parameter schema declared with the option {@code params}
+     */
+    public ParameterBinder getBinder() throws BadInputException {
+        if (binder == null) binder = ParameterBinder.parse(schema(options));
+        return binder;
+    }
+
+    /**
+     * @return the names of the parameters used in the query or declared with the option {@code params}
+     */
+    public Set<String> getParameterNames() {
+        if (parameterNames == null) parameterNames = EndpointCatalog.params(this).keySet();
+        return parameterNames;
+    }
+
+    static String schema(Map<String, Object> options) {
+        Object schema = options.get("params");
+        return schema == null ? null : schema.toString();
+    }
+
+    static final List<String> INT_OPTIONS = Arrays.asList("maxConcurrent", "maxQueue", "timeout", "maxRows");
+    static final List<String> LONG_OPTIONS = Arrays.asList("maxBytes", "budget");
+
+    /**
+     * Checks that the numeric options are non-negative whole numbers, so that they can be read with
+     * {@link #intOption} and {@link #longOption}.
+     */
+    static void checkOptions(Map<String, Object> options) throws BadInputException {
+        for (String name : INT_OPTIONS) checkOption(options, name, Integer.MAX_VALUE);
+        for (String name : LONG_OPTIONS) checkOption(options, name, Long.MAX_VALUE);
+    }
+
+    private static void checkOption(Map<String, Object> options, String name, long max) throws BadInputException {
+        Object value = options.get(name);
+        if (value == null) return;
+        try {
+            long number = Long.parseLong(value.toString());
+            if (number >= 0 && number <= max) return;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new BadInputException("Option " + name + " must be a whole number from 0 to " + max + ", not " + value);
+    }
+
+    public int intOption(String name, int defaultValue) {
+        Object value = options.get(name);
+        if (value instanceof Number) return ((Number) value).intValue();
+        if (value instanceof String) return Integer.parseInt((String) value);
+        return defaultValue;
+    }
+
+    public long longOption(String name, long defaultValue) {
+        Object value = options.get(name);
+        if (value instanceof Number) return ((Number) value).longValue();
+        if (value instanceof String) return Long.parseLong((String) value);
+        return defaultValue;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("query", query);
+        result.put("options", options);
+        return result;
+    }
+
+    static boolean isReserved(String key) {
+        return key.startsWith(RESERVED_PREFIX);
+    }
+
+    static boolean isValidKey(String key) {
+        return !isReserved(key) && !key.contains("@");
+    }
+
+    /**
+     * @param name the endpoint key for the active version or {@code key@v<version>} for a pinned version
+     */
+    static Endpoint load(GraphProperties props, String name) {
+        if (isReserved(name)) return null;
+        int idx = name.lastIndexOf(VERSION_SEPARATOR);
+        if (idx != -1) {
+            try {
+                return load(props, name.substring(0, idx), Integer.parseInt(name.substring(idx + VERSION_SEPARATOR.length())));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (!props.hasProperty(name)) return null;
+        return load(props, name, activeVersion(props, name));
+    }
+
+    @SuppressWarnings("unchecked")
+    static Endpoint load(GraphProperties props, String key, int version) {
+        if (version == 0) {
+            if (props.hasProperty(ACTIVE_PREFIX + key) || !props.hasProperty(key)) return null;
+            return new Endpoint(key, 0, (String) props.getProperty(key), null);
+        }
+        String definition = (String) property(props, DEFINITION_PREFIX + key + VERSION_SEPARATOR + version, null);
+        if (definition == null) return null;
+        try {
+            Map<String, Object> data = Utils.readJson(definition);
+            return new Endpoint(key, version, (String) data.get("query"), (Map<String, Object>) data.get("options"));
+        } catch (IOException e) {
+            throw new IllegalStateException("Invalid definition stored for endpoint " + key + VERSION_SEPARATOR + version + ": " + e.getMessage());
+        }
+    }
+
+    static List<Endpoint> loadAll(GraphProperties props) {
+        List<Endpoint> result = new ArrayList<>();
+        for (String key : props.getPropertyKeys()) {
+            Endpoint endpoint = load(props, key);
+            if (endpoint != null) result.add(endpoint);
+        }
+        return result;
+    }
+
+    static List<Endpoint> loadVersions(GraphProperties props, String key) {
+        List<Endpoint> result = new ArrayList<>();
+        Endpoint legacy = load(props, key, 0);
+        if (legacy != null) result.add(legacy);
+        for (int version = 1; version <= latestVersion(props, key); version++) {
+            Endpoint endpoint = load(props, key, version);
+            if (endpoint != null) result.add(endpoint);
+        }
+        return result;
+    }
+
+    static int activeVersion(GraphProperties props, String key) {
+        return ((Number) property(props, ACTIVE_PREFIX + key, 0)).intValue();
+    }
+
+    static int latestVersion(GraphProperties props, String key) {
+        return ((Number) property(props, LATEST_PREFIX + key, 0)).intValue();
+    }
+
+    /**
+     * @return the stamp of the last change of any endpoint, 0 if there was none
+     */
+    static long stamp(GraphProperties props) {
+        return ((Number) property(props, STAMP, 0L)).longValue();
+    }
+
+    // increasing even if the clocks of the instances differ
+    private static void touch(GraphProperties props) {
+        props.setProperty(STAMP, Math.max(stamp(props) + 1, System.currentTimeMillis()));
+    }
+
+    // graph properties can't be locked explicitly, but writing one takes the exclusive lock on all of them until commit,
+    // so concurrent transactions allocate versions one after the other and each sees the version committed before
+    private static void lock(GraphProperties props) {
+        props.setProperty(STAMP, stamp(props));
+    }
+
+    // GraphProperties.getProperty(key, defaultValue) returns false instead of the default for missing keys
+    private static Object property(GraphProperties props, String key, Object defaultValue) {
+        return props.hasProperty(key) ? props.getProperty(key) : defaultValue;
+    }
+
+    /**
+     * Stores the query and options as a new version, which becomes active if requested or if there is no active version yet.
+     * Must be called within a transaction, which holds the graph properties locked until it ends.
+     */
+    static Endpoint create(GraphProperties props, String key, String query, Map<String, Object> options, boolean activate) throws IOException {
+        lock(props);
+        int version = latestVersion(props, key) + 1;
+        Endpoint endpoint = new Endpoint(key, version, query, options);
+        props.setProperty(DEFINITION_PREFIX + endpoint.getId(), Utils.toJson(endpoint.toMap()));
+        props.setProperty(LATEST_PREFIX + key, version);
+        if (activate || !props.hasProperty(key)) activate(props, endpoint);
+        touch(props);
+        return endpoint;
+    }
+
+    static void activate(GraphProperties props, Endpoint endpoint) {
+        props.setProperty(ACTIVE_PREFIX + endpoint.getKey(), endpoint.getVersion());
+        props.setProperty(endpoint.getKey(), endpoint.getQuery());
+        touch(props);
+    }
+
+    static boolean remove(GraphProperties props, String key) {
+        if (!isValidKey(key) || !props.hasProperty(key)) return false;
+        for (int version = 1; version <= latestVersion(props, key); version++) {
+            props.removeProperty(DEFINITION_PREFIX + key + VERSION_SEPARATOR + version);
+        }
+        // the latest version is kept, so that a new endpoint of the same key doesn't reuse the ids of removed versions,
+        // which other instances may still have limits, cached responses and plans for
+        props.removeProperty(ACTIVE_PREFIX + key);
+        props.removeProperty(key);
+        touch(props);
+        return true;
+    }
+}
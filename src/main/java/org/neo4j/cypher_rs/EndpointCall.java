@@ -0,0 +1,115 @@
+package org.neo4j.cypher_rs;
+
+import org.neo4j.server.rest.repr.BadInputException;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One call of an endpoint as the {@link EndpointExecutor} runs it: the parameter sets, how the rows are rendered,
+ * the timeout and the latency budget. The REST handlers build it from the request, the row and byte limits come
+ * from the endpoint options.
+ */
+public class EndpointCall {
+    private final Endpoint endpoint;
+    private final List<Map<String, Object>> params;
+    private String render;
+    private FieldFilter fields = FieldFilter.ALL;
+    private CypherResultRenderer.Paths paths = CypherResultRenderer.Paths.MATERIALIZED;
+    private Deadline deadline = Deadline.NONE;
+    private LatencyBudget budget = LatencyBudget.NONE;
+    private String key;
+    // calls that are not traced record their phases for nobody
+    private Invocation invocation = new Invocation(null, Trace.NONE);
+
+    public EndpointCall(Endpoint endpoint, List<Map<String, Object>> params) {
+        this.endpoint = endpoint;
+        this.params = params;
+    }
+
+    /**
+     * @param mode see {@link CypherResultRenderer#forMode}
+     */
+    public EndpointCall withRender(String mode, FieldFilter fields) {
+        this.render = mode;
+        this.fields = fields;
+        return this;
+    }
+
+    public EndpointCall withPaths(CypherResultRenderer.Paths paths) {
+        this.paths = paths;
+        return this;
+    }
+
+    /**
+     * @param timeout the requested timeout in ms, null for the endpoint's
+     */
+    public EndpointCall withTimeout(String timeout) {
+        this.deadline = Deadline.forEndpoint(endpoint, timeout);
+        return this;
+    }
+
+    /**
+     * @param start when the request arrived, from {@link System#nanoTime}
+     */
+    public EndpointCall withBudget(long start) throws BadInputException {
+        this.budget = LatencyBudget.forEndpoint(endpoint, start);
+        return this;
+    }
+
+    /**
+     * @param key identifies calls with the same response, for the {@link ResponseCache}
+     */
+    public EndpointCall withKey(String key) {
+        this.key = key;
+        return this;
+    }
+
+    public EndpointCall withInvocation(Invocation invocation) {
+        this.invocation = invocation;
+        return this;
+    }
+
+    public Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public List<Map<String, Object>> getParams() {
+        return params;
+    }
+
+    public Deadline getDeadline() {
+        return deadline;
+    }
+
+    public LatencyBudget getBudget() {
+        return budget;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Invocation getInvocation() {
+        return invocation;
+    }
+
+    /**
+     * @return a renderer for one result of this call, with the endpoint's row limit and the call's budget
+     */
+    public CypherResultRenderer newRenderer() throws BadInputException {
+        CypherResultRenderer renderer = CypherResultRenderer.forMode(render, fields)
+                .withPaths(paths)
+                .withMaxRows(endpoint.intOption("maxRows", CypherResultRenderer.MAX_ROWS))
+                .withBudget(budget);
+        if (invocation.getTrace().isRecording()) renderer.withTimings();
+        return renderer;
+    }
+
+    /**
+     * @return the endpoint's byte limit for rendered results, 0 for none
+     */
+    public long getMaxBytes() {
+        return endpoint.longOption("maxBytes", CypherResultRenderer.MAX_BYTES);
+    }
+}
@@ -0,0 +1,154 @@
+package org.neo4j.cypher_rs;
+
+import org.neo4j.kernel.impl.core.GraphProperties;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The active endpoints with what they do and how they perform, for listing them.
+ * Definitions are loaded once and kept until the {@link EndpointRegistry} is invalidated, call statistics are
+ * collected per endpoint key over all versions, from calls that found their endpoint.
+ *
+ * Per endpoint: {"query":"...","version":2,"mode":"read","params":{"name":"string"},"calls":12,"errors":1,
+ * "avg_ms":1.4,"p99_ms":6.1,"max_ms":8.2,"avg_rows":2.5,"last_error":{"time":1571500000000,"status":504,"message":"..."}}
+ */
+public class EndpointCatalog {
+    private static final Pattern PARAMETER = Pattern.compile("\\{(\\w+)\\}");
+    private static final int NOT_FOUND = 404;
+
+    private final EndpointRegistry registry;
+    private final ConcurrentMap<String, Summary> summaries = new ConcurrentHashMap<>();
+    private Map<String, Endpoint> definitions = Collections.emptyMap();
+    private long loadedAt = -1;
+
+    public EndpointCatalog(EndpointRegistry registry) {
+        this.registry = registry;
+    }
+
+    private static class Summary {
+        final LatencyStats latency = new LatencyStats();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong callsWithRows = new AtomicLong();
+        volatile Map<String, Object> lastError;
+    }
+
+    /**
+     * @param name the endpoint key, with or without version
+     * @param rows the rows returned, -1 if the call doesn't return rows
+     * @param error the message of a failed call (5xx), if there is one
+     */
+    public void record(String name, long nanos, int status, int rows, String error) {
+        if (status == NOT_FOUND) return;
+        String key = keyOf(name);
+        Summary summary = summaries.get(key);
+        if (summary == null) {
+            summaries.putIfAbsent(key, new Summary());
+            summary = summaries.get(key);
+        }
+        boolean failed = status >= 500;
+        summary.latency.record(nanos, failed);
+        if (rows >= 0) {
+            summary.rows.addAndGet(rows);
+            summary.callsWithRows.incrementAndGet();
+        }
+        if (failed) {
+            Map<String, Object> lastError = new LinkedHashMap<>();
+            lastError.put("time", System.currentTimeMillis());
+            lastError.put("status", status);
+            if (error != null) lastError.put("message", error);
+            summary.lastError = lastError;
+        }
+    }
+
+    private static String keyOf(String name) {
+        int idx = name.lastIndexOf(Endpoint.VERSION_SEPARATOR);
+        return idx == -1 ? name : name.substring(0, idx);
+    }
+
+    public void forget(String key) {
+        summaries.remove(key);
+    }
+
+    /**
+     * @return the keys of the active endpoints, must be called within a transaction
+     */
+    public List<String> keys(GraphProperties props) {
+        return new ArrayList<>(definitions(props).keySet());
+    }
+
+    /**
+     * @return the queries of the active endpoints by key, must be called within a transaction
+     */
+    public Map<String, String> queries(GraphProperties props) {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (Endpoint endpoint : definitions(props).values()) {
+            result.put(endpoint.getKey(), endpoint.getQuery());
+        }
+        return result;
+    }
+
+    /**
+     * @return the active endpoints by key with their statistics, must be called within a transaction
+     */
+    public Map<String, Object> toMap(GraphProperties props) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Endpoint endpoint : definitions(props).values()) {
+            result.put(endpoint.getKey(), toMap(endpoint, summaries.get(endpoint.getKey())));
+        }
+        return result;
+    }
+
+    private Map<String, Object> toMap(Endpoint endpoint, Summary summary) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("query", endpoint.getQuery());
+        result.put("version", endpoint.getVersion());
+        result.put("mode", Utils.isWriteQuery(endpoint.getQuery()) ? "write" : "read");
+        result.put("params", params(endpoint));
+        if (summary == null) summary = new Summary();
+        result.putAll(summary.latency.toMap());
+        long callsWithRows = summary.callsWithRows.get();
+        result.put("avg_rows", callsWithRows == 0 ? 0 : summary.rows.get() / (double) callsWithRows);
+        if (summary.lastError != null) result.put("last_error", summary.lastError);
+        return result;
+    }
+
+    // the parameters used in the query, with the types declared with the option params, others are bound automatically
+    static Map<String, String> params(Endpoint endpoint) {
+        Map<String, String> result = new LinkedHashMap<>();
+        Matcher matcher = PARAMETER.matcher(endpoint.getQuery());
+        while (matcher.find()) {
+            result.put(matcher.group(1), "auto");
+        }
+        String schema = Endpoint.schema(endpoint.getOptions());
+        if (schema == null) return result;
+        for (String param : schema.split(",")) {
+            int idx = param.indexOf(':');
+            if (idx != -1) result.put(param.substring(0, idx).trim(), param.substring(idx + 1).trim());
+        }
+        return result;
+    }
+
+    // reloaded only after changes, statistics of endpoints that are gone are dropped then
+    private synchronized Map<String, Endpoint> definitions(GraphProperties props) {
+        registry.refresh(props);
+        long generation = registry.getGeneration();
+        if (generation == loadedAt) return definitions;
+        Map<String, Endpoint> loaded = new LinkedHashMap<>();
+        for (Endpoint endpoint : Endpoint.loadAll(props)) {
+            loaded.put(endpoint.getKey(), endpoint);
+        }
+        summaries.keySet().retainAll(loaded.keySet());
+        definitions = loaded;
+        loadedAt = generation;
+        return definitions;
+    }
+}
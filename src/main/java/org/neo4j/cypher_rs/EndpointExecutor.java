@@ -0,0 +1,288 @@
+package org.neo4j.cypher_rs;
+
+import org.neo4j.cypher.javacompat.ExecutionEngine;
+import org.neo4j.cypher.javacompat.ExecutionResult;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.core.GraphProperties;
+import org.neo4j.kernel.impl.core.NodeManager;
+import org.neo4j.server.rest.repr.BadInputException;
+
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Calls stored endpoints from the same JVM without going through HTTP and JSON, rows are handed out as they come
+ * from cypher, with nodes, relationships and paths as graph objects.
+ * Uses the same endpoint cache, plan cache and concurrency limits as the REST endpoints, which hand their calls
+ * to the render methods here and only translate requests and responses.
+ *
+ * <pre>
+ * EndpointExecutor executor = EndpointExecutor.forDatabase(db);
+ * executor.read("users", map("name", "Andres"), new RowCallback() {
+ *     public boolean row(Map&lt;String, Object&gt; row) {
+ *         Node user = (Node) row.get("user");
+ *         return true;
+ *     }
+ * });
+ * </pre>
+ */
+public class EndpointExecutor {
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Receives the rows of an endpoint call, valid only during the call.
+     */
+    public interface RowCallback {
+        /**
+         * @return false to stop, no further rows are read then
+         */
+        boolean row(Map<String, Object> row);
+    }
+
+    private final GraphDatabaseService db;
+    private final GraphProperties props;
+    private final ExecutionEngine engine;
+    private final EndpointRegistry registry;
+    private final AdmissionControl admission;
+    private final BufferPool bufferPool;
+    private final ResponseCache responseCache;
+
+    EndpointExecutor(GraphDatabaseService db, ExecutionEngine engine, EndpointRegistry registry, AdmissionControl admission,
+                     BufferPool bufferPool, ResponseCache responseCache) {
+        this.db = db;
+        this.props = ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(NodeManager.class).getGraphProperties();
+        this.engine = engine;
+        this.registry = registry;
+        this.admission = admission;
+        this.bufferPool = bufferPool;
+        this.responseCache = responseCache;
+    }
+
+    public static EndpointExecutor forDatabase(GraphDatabaseService db) {
+        return CypherRsContext.forDatabase(db).getExecutor();
+    }
+
+    /**
+     * Calls a read-only endpoint in its own transaction, which is not committed.
+     *
+     * @param name the endpoint key or {@code key@v<version>}
+     * @return the number of rows passed to the callback
+     * @throws NotFoundException if there is no such endpoint
+     * @throws IllegalArgumentException if the endpoint's query writes
+     */
+    public int read(String name, Map<String, Object> params, RowCallback callback) throws RejectedException {
+        try (Transaction tx = db.beginTx()) {
+            Endpoint endpoint = endpoint(name);
+            if (Utils.isWriteQuery(endpoint.getQuery())) throw new IllegalArgumentException("Endpoint " + name + " is not read-only");
+            return run(endpoint, params, callback);
+        }
+    }
+
+    /**
+     * Calls an endpoint in its own transaction, which is committed if the callback doesn't throw.
+     *
+     * @see #read
+     */
+    public int write(String name, Map<String, Object> params, RowCallback callback) throws RejectedException {
+        try (Transaction tx = db.beginTx()) {
+            int rows = run(endpoint(name), params, callback);
+            tx.success();
+            return rows;
+        }
+    }
+
+    private Endpoint endpoint(String name) {
+        Endpoint endpoint = lookup(name);
+        if (endpoint == null) throw new NotFoundException("Unknown endpoint " + name);
+        return endpoint;
+    }
+
+    private int run(Endpoint endpoint, Map<String, Object> params, RowCallback callback) throws RejectedException {
+        try (AdmissionControl.Ticket ticket = admission.admit(endpoint)) {
+            Deadline deadline = Deadline.forEndpoint(endpoint, null);
+            int rows = 0;
+            try (ResourceIterator<Map<String, Object>> it = execute(endpoint, params).iterator()) {
+                while (it.hasNext()) {
+                    deadline.check();
+                    rows++;
+                    if (!callback.row(it.next())) break;
+                }
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * @return the endpoint or null, must be called within a transaction
+     */
+    public Endpoint lookup(String name) {
+        return registry.get(props, name);
+    }
+
+    /**
+     * Binds request parameters with the endpoint's parameter schema, see {@link ParameterBinder}.
+     */
+    public Map<String, Object> bind(Endpoint endpoint, MultivaluedMap<String, String> parameters, Set<String> ignore) throws BadInputException {
+        return endpoint.getBinder().bind(parameters, ignore);
+    }
+
+    /**
+     * Runs the endpoint's query within the caller's transaction, without admission control.
+     */
+    public ExecutionResult execute(Endpoint endpoint, Map<String, Object> params) {
+        return engine.execute(endpoint.getQuery(), params);
+    }
+
+    public AdmissionControl.Ticket admit(Endpoint endpoint) throws RejectedException {
+        return admission.admit(endpoint);
+    }
+
+    /**
+     * The rendered result of a call, with the limit that cut it off. A response from the {@link ResponseCache}
+     * that a call degraded to has an age.
+     */
+    public static class Rendered {
+        private final Object body;
+        private final String truncated;
+        private final long age;
+
+        Rendered(Object body, String truncated, long age) {
+            this.body = body;
+            this.truncated = truncated;
+            this.age = age;
+        }
+
+        /**
+         * @return the body, null if the result had no rows
+         */
+        public Object getBody() {
+            return body;
+        }
+
+        public String getTruncated() {
+            return truncated;
+        }
+
+        /**
+         * @return seconds since the cached response was rendered, -1 if it was rendered for this call
+         */
+        public long getAge() {
+            return age;
+        }
+    }
+
+    /**
+     * Calls a read endpoint with one parameter set within the caller's transaction and writes its rows as json into
+     * a pooled buffer, which is the body unless the result had no rows. Complete results of endpoints with the
+     * degrade policy {@code cached} are kept, and answered with when a later call times out or exceeds its budget.
+     */
+    public Rendered render(EndpointCall call) throws RejectedException, BadInputException, IOException {
+        Endpoint endpoint = call.getEndpoint();
+        Invocation invocation = call.getInvocation();
+        String cacheKey = call.getBudget().getPolicy() == LatencyBudget.Policy.CACHED ? call.getKey() : null;
+        try (AdmissionControl.Ticket ticket = admission.admit(endpoint)) {
+            call.getBudget().check();
+            CypherResultRenderer renderer = call.newRenderer();
+            invocation.phase("execute");
+            ExecutionResult result = execute(endpoint, call.getParams().get(0));
+
+            Trace.Span span = invocation.phase("render");
+            BufferPool.Output out = bufferPool.newOutput();
+            try {
+                boolean hasRows;
+                try {
+                    hasRows = renderer.write(result, call.getDeadline(), out, call.getMaxBytes());
+                } finally {
+                    invocation.addRows(renderer.getRowCount());
+                }
+                long[] timings = renderer.getTimings();
+                span.set("rows", renderer.getRowCount()).set("bytes", out.size())
+                        .set("iterate_ns", timings[0]).set("convert_ns", timings[1]).set("serialize_ns", timings[2]);
+                invocation.endPhase();
+                if (!hasRows) return new Rendered(null, null, -1);
+
+                BufferPool.Entity entity = out.toEntity();
+                if (cacheKey != null && renderer.getTruncated() == null) responseCache.put(cacheKey, entity);
+                return new Rendered(entity, renderer.getTruncated(), -1);
+            } finally {
+                out.discard();
+            }
+        } catch (QueryTimeoutException e) {
+            ResponseCache.Entry cached = cacheKey == null ? null : responseCache.get(cacheKey);
+            if (cached == null) throw e;
+            return new Rendered(cached.getEntity(), null, cached.getAge());
+        }
+    }
+
+    /**
+     * Calls an endpoint once per parameter set within the caller's transaction and writes the results as json into
+     * {@code out}, the single result or an array of them, in which results without rows are null. Rich results share
+     * their side tables, an entity is only in the tables of the first result it occurs in. The byte limit
+     * counts for all results together, once it is reached the remaining calls still run but their rows are not written.
+     *
+     * @return the result with {@code out} as body, which is null if the single result had no rows and nothing was written
+     */
+    public Rendered renderAll(EndpointCall call, OutputStream out) throws RejectedException, BadInputException, IOException {
+        Endpoint endpoint = call.getEndpoint();
+        Invocation invocation = call.getInvocation();
+        Deadline deadline = call.getDeadline();
+        List<Map<String, Object>> params = call.getParams();
+        long maxBytes = call.getMaxBytes();
+        boolean single = params.size() == 1;
+        try (AdmissionControl.Ticket ticket = admission.admit(endpoint)) {
+            CypherResultRenderer.CountingOutputStream counted = new CypherResultRenderer.CountingOutputStream(out);
+            String truncated = null;
+            // results are written right after each execution, so both share one span
+            invocation.phase("execute");
+            if (!single) counted.write('[');
+            CypherResultRenderer previous = null;
+            for (int i = 0; i < params.size(); i++) {
+                deadline.check();
+                ExecutionResult result = execute(endpoint, params.get(i));
+                if (i > 0) counted.write(',');
+                CypherResultRenderer renderer = call.newRenderer();
+                if (previous != null) renderer.after(previous);
+                previous = renderer;
+                boolean hasRows;
+                try {
+                    hasRows = renderer.write(result, deadline, counted, maxBytes == 0 ? 0 : Math.max(1, maxBytes - counted.size()));
+                } finally {
+                    invocation.addRows(renderer.getRowCount());
+                }
+                if (renderer.getTruncated() != null) truncated = renderer.getTruncated();
+                if (hasRows) continue;
+                if (single) return new Rendered(null, null, -1);
+                counted.write(NULL);
+            }
+            if (!single) counted.write(']');
+            invocation.endPhase();
+            return new Rendered(out, truncated, -1);
+        }
+    }
+
+    /**
+     * Calls an endpoint once per parameter set within the caller's transaction and sums up what the calls changed,
+     * the results are not rendered.
+     */
+    public UpdateStatistics stats(EndpointCall call) throws RejectedException {
+        Endpoint endpoint = call.getEndpoint();
+        Deadline deadline = call.getDeadline();
+        try (AdmissionControl.Ticket ticket = admission.admit(endpoint)) {
+            UpdateStatistics stats = new UpdateStatistics();
+            for (Map<String, Object> params : call.getParams()) {
+                deadline.check();
+                stats.add(execute(endpoint, params), deadline);
+            }
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.neo4j.cypher_rs;
+
+import org.neo4j.kernel.impl.core.GraphProperties;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of loaded endpoints, so that requests don't read and parse the stored definitions each time.
+ *
+ * Every change of the stored endpoints also updates the stamp stored with them ({@link Endpoint#stamp}).
+ * Changes made through this instance invalidate the cache right after their commit, changes made by other
+ * server instances are noticed by comparing the stored stamp, which is read at most once per
+ * {@link #REFRESH_INTERVAL} ms, so other instances see a change after at most that delay.
+ */
+public class EndpointRegistry {
+    public static final long REFRESH_INTERVAL = Long.getLong("cypher_rs.refresh_interval", 1000);
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private volatile long stamp = -1;
+    private volatile long nextCheck;
+
+    /**
+     * @param name the endpoint key or {@code key@v<version>}, must be called within a transaction
+     */
+    public Endpoint get(GraphProperties props, String name) {
+        refresh(props);
+        Endpoint endpoint = endpoints.get(name);
+        if (endpoint != null) return endpoint;
+
+        long loadedAt = generation.get();
+        endpoint = Endpoint.load(props, name);
+        if (endpoint == null) return null;
+        endpoints.putIfAbsent(name, endpoint);
+        // an invalidation during the load may have missed this entry
+        if (generation.get() != loadedAt) endpoints.remove(name, endpoint);
+        return endpoint;
+    }
+
+    public void invalidate() {
+        generation.incrementAndGet();
+        endpoints.clear();
+    }
+
+    public long getStamp() {
+        return stamp;
+    }
+
+    /**
+     * @return a number that changes with every invalidation
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Invalidates the cache if another instance changed the stored endpoints, must be called within a transaction.
+     */
+    public void refresh(GraphProperties props) {
+        long now = System.currentTimeMillis();
+        if (now < nextCheck) return;
+        nextCheck = now + REFRESH_INTERVAL;
+        long stored = Endpoint.stamp(props);
+        if (stored != stamp) {
+            stamp = stored;
+            invalidate();
+        }
+    }
+}
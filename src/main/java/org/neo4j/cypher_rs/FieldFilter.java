@@ -0,0 +1,73 @@
+package org.neo4j.cypher_rs;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Projection of a result to the requested fields, e.g. {@code ?fields=name,address.city}.
+ * Fields apply to the keys of rendered maps and nodes/relationships, lists are projected element-wise,
+ * nested paths select fields of nested maps. Requesting a field as a whole wins over nested paths into it.
+ */
+public class FieldFilter {
+    public static final FieldFilter ALL = new FieldFilter(null);
+
+    private final Map<String, FieldFilter> fields;
+
+    private FieldFilter(Map<String, FieldFilter> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * @param values comma separated field paths, paths are separated by dots
+     * @return {@link #ALL} if no fields are given
+     */
+    public static FieldFilter parse(List<String> values) {
+        if (values == null) return ALL;
+        FieldFilter root = new FieldFilter(new LinkedHashMap<String, FieldFilter>());
+        for (String value : values) {
+            for (String field : value.split(",")) {
+                field = field.trim();
+                if (!field.isEmpty()) root.add(field.split("\\."), 0);
+            }
+        }
+        return root.fields.isEmpty() ? ALL : root;
+    }
+
+    private void add(String[] path, int idx) {
+        String name = path[idx];
+        if (idx == path.length - 1) {
+            fields.put(name, ALL);
+            return;
+        }
+        FieldFilter child = fields.get(name);
+        if (child == ALL) return;
+        if (child == null) {
+            child = new FieldFilter(new LinkedHashMap<String, FieldFilter>());
+            fields.put(name, child);
+        }
+        child.add(path, idx + 1);
+    }
+
+    public boolean isAll() {
+        return fields == null;
+    }
+
+    public Collection<String> getFields() {
+        return fields.keySet();
+    }
+
+    public boolean includes(String field) {
+        return fields == null || fields.containsKey(field);
+    }
+
+    /**
+     * @return the filter for the value of the given field
+     */
+    public FieldFilter get(String field) {
+        if (fields == null) return ALL;
+        FieldFilter child = fields.get(field);
+        return child == null ? ALL : child;
+    }
+}
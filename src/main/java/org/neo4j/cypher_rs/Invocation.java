@@ -0,0 +1,83 @@
+package org.neo4j.cypher_rs;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One endpoint call as seen by tracing and the slow log: the endpoint, its parameters, the rows returned
+ * and the time spent in each phase. Phases follow each other, starting a phase ends the previous one.
+ */
+public class Invocation {
+    private final String method;
+    private final Trace trace;
+    private final long start = System.nanoTime();
+    private final Map<String, Double> phases = new LinkedHashMap<>();
+    private Endpoint endpoint;
+    private Map<String, Object> params = Collections.emptyMap();
+    private int rows;
+    private String phase;
+    private long phaseStart;
+    private Trace.Span span;
+
+    public Invocation(String method, Trace trace) {
+        this.method = method;
+        this.trace = trace;
+    }
+
+    public Trace getTrace() {
+        return trace;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public Trace.Span phase(String name) {
+        endPhase();
+        phase = name;
+        phaseStart = System.nanoTime();
+        span = trace.start(name);
+        if (endpoint != null) span.set("endpoint", endpoint.getId());
+        return span;
+    }
+
+    public void endPhase() {
+        if (phase == null) return;
+        phases.put(phase, LatencyStats.millis(System.nanoTime() - phaseStart));
+        span.end();
+        phase = null;
+    }
+
+    public Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(Endpoint endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public Map<String, Object> getParams() {
+        return params;
+    }
+
+    public void setParams(Map<String, Object> params) {
+        this.params = params;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public void addRows(int rows) {
+        this.rows += rows;
+    }
+
+    public Map<String, Double> getPhases() {
+        return phases;
+    }
+
+    public long getMillis() {
+        return (System.nanoTime() - start) / 1000000;
+    }
+}
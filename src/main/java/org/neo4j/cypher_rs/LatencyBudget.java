@@ -0,0 +1,71 @@
+package org.neo4j.cypher_rs;
+
+import org.neo4j.server.rest.repr.BadInputException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The response time a read endpoint promises, counted from the arrival of the request, set with the endpoint option
+ * {@code budget} (ms). The option {@code degrade} says what to answer when it is exceeded: {@code partial} returns the
+ * rows read so far, {@code cached} the last complete response for the same parameters and {@code fail} (the default)
+ * fails right away. Unlike the {@link Deadline}, which ends the call in any case, the budget lets the call end with an answer.
+ */
+public class LatencyBudget {
+    public static final LatencyBudget NONE = new LatencyBudget(0, Policy.FAIL, 0);
+
+    public enum Policy {
+        PARTIAL, CACHED, FAIL;
+
+        public static Policy parse(Object value) throws BadInputException {
+            if (value == null) return FAIL;
+            switch (value.toString()) {
+                case "partial": return PARTIAL;
+                case "cached": return CACHED;
+                case "fail": return FAIL;
+                default: throw new BadInputException("Unknown degrade policy " + value + ", expected partial, cached or fail");
+            }
+        }
+    }
+
+    private final long budget;
+    private final Policy policy;
+    private final long start;
+
+    private LatencyBudget(long budget, Policy policy, long start) {
+        this.budget = budget;
+        this.policy = policy;
+        this.start = start;
+    }
+
+    /**
+     * @param start when the request arrived, from {@link System#nanoTime}
+     */
+    public static LatencyBudget forEndpoint(Endpoint endpoint, long start) throws BadInputException {
+        long budget = endpoint.longOption("budget", 0);
+        if (budget <= 0) return NONE;
+        return new LatencyBudget(budget, Policy.parse(endpoint.getOptions().get("degrade")), start);
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public boolean isExpired() {
+        return this != NONE && System.nanoTime() - start > TimeUnit.MILLISECONDS.toNanos(budget);
+    }
+
+    /**
+     * Fails before any work is done if the budget was spent waiting, unless partial results are allowed.
+     */
+    public void check() {
+        if (isExpired() && policy != Policy.PARTIAL) throw exceeded();
+    }
+
+    public QueryTimeoutException exceeded() {
+        return new QueryTimeoutException("Query exceeded latency budget of " + budget + " ms");
+    }
+}
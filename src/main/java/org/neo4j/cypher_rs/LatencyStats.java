@@ -0,0 +1,92 @@
+package org.neo4j.cypher_rs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Call count, errors and latency of a group of calls. Percentiles come from a histogram with four buckets
+ * per power of two microseconds, so they are at most 25% above the actual value.
+ */
+public class LatencyStats {
+    // exact below 8 micros, then four buckets per power of two up to about 25 days
+    private static final int BUCKETS = 8 + (40 - 3 + 1) * 4;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    public void record(long nanos, boolean error) {
+        calls.incrementAndGet();
+        if (error) errors.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        histogram.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMicros(nanos)));
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    static int bucket(long micros) {
+        if (micros < 8) return (int) Math.max(0, micros);
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) ((micros >> (exponent - 2)) & 3);
+        return Math.min(BUCKETS - 1, 8 + (exponent - 3) * 4 + sub);
+    }
+
+    // the largest value in the bucket
+    static long upperBound(int bucket) {
+        if (bucket < 8) return bucket;
+        int exponent = (bucket - 8) / 4 + 3;
+        int sub = (bucket - 8) % 4;
+        return ((4L + sub + 1) << (exponent - 2)) - 1;
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     * @return the latency in ms that this share of the calls didn't exceed, 0 without calls
+     */
+    public double percentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = histogram.get(i);
+            total += counts[i];
+        }
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(millis(maxNanos.get()), millis(TimeUnit.MICROSECONDS.toNanos(upperBound(i))));
+        }
+        return millis(maxNanos.get());
+    }
+
+    public Map<String, Object> toMap() {
+        long count = calls.get();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("calls", count);
+        result.put("errors", errors.get());
+        result.put("avg_ms", count == 0 ? 0 : millis(totalNanos.get() / count));
+        result.put("p99_ms", percentile(0.99));
+        result.put("max_ms", millis(maxNanos.get()));
+        return result;
+    }
+
+    static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
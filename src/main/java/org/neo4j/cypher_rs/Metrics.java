@@ -0,0 +1,48 @@
+package org.neo4j.cypher_rs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Service wide metrics, reads (GET) and writes (JSON and CSV POST) are tracked separately.
+ */
+public class Metrics {
+    private final LatencyStats reads = new LatencyStats();
+    private final LatencyStats writes = new LatencyStats();
+    private final ThreadPoolExecutor readExecutor;
+    private final Coalescer coalescer;
+    private final BufferPool bufferPool;
+    private final ResponseCache responseCache;
+
+    public Metrics(ThreadPoolExecutor readExecutor, Coalescer coalescer, BufferPool bufferPool, ResponseCache responseCache) {
+        this.readExecutor = readExecutor;
+        this.coalescer = coalescer;
+        this.bufferPool = bufferPool;
+        this.responseCache = responseCache;
+    }
+
+    public LatencyStats getReads() {
+        return reads;
+    }
+
+    public LatencyStats getWrites() {
+        return writes;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> pool = new LinkedHashMap<>();
+        pool.put("threads", readExecutor.getPoolSize());
+        pool.put("active", readExecutor.getActiveCount());
+        pool.put("queued", readExecutor.getQueue().size());
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("reads", reads.toMap());
+        result.put("writes", writes.toMap());
+        result.put("read_pool", pool);
+        result.put("coalesced", coalescer.toMap());
+        result.put("buffer_pool", bufferPool.toMap());
+        result.put("degrade_cache", responseCache.toMap());
+        return result;
+    }
+}
@@ -0,0 +1,136 @@
+package org.neo4j.cypher_rs;
+
+import org.neo4j.server.rest.repr.BadInputException;
+
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Binds request parameters, which are all strings, to typed cypher parameters.
+ *
+ * The type of a parameter comes from a suffix hint on its name ({@code ?zip:string=01234}), from the schema declared with
+ * the endpoint option {@code params} ({@code zip:string,ids:long[]}), the hint wins, otherwise it is guessed:
+ * {@code true}/{@code false} become booleans, numbers become longs or doubles, except numbers with leading zeros.
+ * Types are {@code string}, {@code long} ({@code int}), {@code double} ({@code float}) and {@code boolean},
+ * a {@code []} suffix always binds a list. Several values for one parameter are always bound as a list.
+ */
+public class ParameterBinder {
+    public static final ParameterBinder AUTO = new ParameterBinder(Collections.<String, Type>emptyMap());
+
+    enum Kind { AUTO, STRING, LONG, DOUBLE, BOOLEAN }
+
+    static final class Type {
+        static final Type AUTO = new Type(Kind.AUTO, false);
+
+        final Kind kind;
+        final boolean list;
+
+        Type(Kind kind, boolean list) {
+            this.kind = kind;
+            this.list = list;
+        }
+    }
+
+    private final Map<String, Type> schema;
+
+    private ParameterBinder(Map<String, Type> schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * @param schema comma separated {@code name:type} pairs, null for none
+     */
+    public static ParameterBinder parse(String schema) throws BadInputException {
+        if (schema == null || schema.trim().isEmpty()) return AUTO;
+        Map<String, Type> types = new HashMap<>();
+        for (String param : schema.split(",")) {
+            int idx = param.indexOf(':');
+            if (idx == -1) throw new BadInputException("Parameter " + param.trim() + " has no type, expected name:type");
+            types.put(param.substring(0, idx).trim(), type(param.substring(idx + 1).trim()));
+        }
+        return new ParameterBinder(types);
+    }
+
+    static Type type(String name) throws BadInputException {
+        boolean list = name.endsWith("[]");
+        if (list) name = name.substring(0, name.length() - 2);
+        switch (name) {
+            case "string": return new Type(Kind.STRING, list);
+            case "int": case "long": return new Type(Kind.LONG, list);
+            case "float": case "double": return new Type(Kind.DOUBLE, list);
+            case "boolean": return new Type(Kind.BOOLEAN, list);
+            default: throw new BadInputException("Unknown parameter type " + name + ", expected string, long, double or boolean");
+        }
+    }
+
+    public Map<String, Object> bind(MultivaluedMap<String, String> parameters, Set<String> ignore) throws BadInputException {
+        Map<String, Object> result = new HashMap<>(parameters.size() * 2);
+        for (Map.Entry<String, List<String>> entry : parameters.entrySet()) {
+            String name = entry.getKey();
+            if (ignore.contains(name)) continue;
+            Type type;
+            int idx = name.indexOf(':');
+            if (idx == -1) {
+                type = schema.get(name);
+                if (type == null) type = Type.AUTO;
+            } else {
+                type = type(name.substring(idx + 1));
+                name = name.substring(0, idx);
+            }
+            result.put(name, bind(entry.getValue(), type));
+        }
+        return result;
+    }
+
+    private Object bind(List<String> values, Type type) throws BadInputException {
+        if (values.size() == 1 && !type.list) return convert(values.get(0), type.kind);
+        List<Object> result = new ArrayList<>(values.size());
+        for (String value : values) {
+            result.add(convert(value, type.kind));
+        }
+        return result;
+    }
+
+    static Object convert(String value, Kind kind) throws BadInputException {
+        switch (kind) {
+            case STRING: return value;
+            case LONG: return Long.parseLong(value.trim());
+            case DOUBLE: return Double.parseDouble(value.trim());
+            case BOOLEAN:
+                if (value.equalsIgnoreCase("true")) return true;
+                if (value.equalsIgnoreCase("false")) return false;
+                throw new BadInputException("Invalid boolean value " + value);
+            default: return convert(value);
+        }
+    }
+
+    /**
+     * Guesses the type of an untyped value, anything that isn't clearly a boolean or number stays a string.
+     */
+    public static Object convert(String value) {
+        if (value.equalsIgnoreCase("true")) return true;
+        if (value.equalsIgnoreCase("false")) return false;
+        int length = value.length();
+        int start = length > 0 && (value.charAt(0) == '+' || value.charAt(0) == '-') ? 1 : 0;
+        if (start == length) return value;
+        int dot = -1;
+        for (int i = start; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '.' && dot == -1) dot = i;
+            else if (c < '0' || c > '9') return value;
+        }
+        // zip codes, ids and the like
+        if (value.charAt(start) == '0' && length > start + 1 && dot != start + 1) return value;
+        if (dot == start || dot == length - 1) return value;
+        try {
+            return dot == -1 ? (Object) Long.parseLong(value) : (Object) Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.neo4j.cypher_rs;
+
+import org.neo4j.cypher.javacompat.ExecutionEngine;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+/**
+ * Execution engine that can put a query into its plan cache without running it,
+ * Cypher 2.1 has no EXPLAIN, so we go through the inner engine's planQuery.
+ */
+public class PlanningExecutionEngine extends ExecutionEngine {
+    // assigned from the super constructor, so it must not have an initializer
+    private org.neo4j.cypher.ExecutionEngine inner;
+
+    public PlanningExecutionEngine(GraphDatabaseService db) {
+        super(db);
+    }
+
+    @Override
+    protected org.neo4j.cypher.ExecutionEngine createInnerEngine(GraphDatabaseService db, StringLogger logger) {
+        inner = super.createInnerEngine(db, logger);
+        return inner;
+    }
+
+    public void plan(String query) {
+        inner.planQuery(query);
+    }
+}
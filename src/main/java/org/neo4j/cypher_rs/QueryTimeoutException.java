@@ -0,0 +1,10 @@
+package org.neo4j.cypher_rs;
+
+/**
+ * Thrown when an endpoint call runs past its {@link Deadline}.
+ */
+public class QueryTimeoutException extends RuntimeException {
+    public QueryTimeoutException(String message) {
+        super(message);
+    }
+}
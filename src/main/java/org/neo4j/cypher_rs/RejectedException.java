@@ -0,0 +1,23 @@
+package org.neo4j.cypher_rs;
+
+/**
+ * Thrown when a request is not admitted because the service or the endpoint is at its concurrency limit.
+ */
+public class RejectedException extends Exception {
+    private final int status;
+    private final int retryAfter;
+
+    public RejectedException(int status, int retryAfter, String message) {
+        super(message);
+        this.status = status;
+        this.retryAfter = retryAfter;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+}
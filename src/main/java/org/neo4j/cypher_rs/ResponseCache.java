@@ -0,0 +1,109 @@
+package org.neo4j.cypher_rs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The last complete responses of read endpoints with the degrade policy {@code cached}, to answer with when a call
+ * exceeds its {@link LatencyBudget}. Keeps the {@link #SIZE} most recently used responses, by endpoint version and
+ * parameters, of at most {@link #MAX_BYTES} bytes together, larger responses are not cached.
+ * The bodies stay in their pooled buffers, which are retained while cached and released on eviction.
+ */
+public class ResponseCache {
+    public static final int SIZE = Integer.getInteger("cypher_rs.degrade_cache", 1000);
+    public static final long MAX_BYTES = Long.getLong("cypher_rs.degrade_cache_bytes", 16 * 1024 * 1024);
+
+    public static class Entry {
+        private final BufferPool.Entity entity;
+        private final long time = System.currentTimeMillis();
+
+        Entry(BufferPool.Entity entity) {
+            this.entity = entity;
+        }
+
+        public BufferPool.Entity getEntity() {
+            return entity;
+        }
+
+        /**
+         * @return seconds since the response was cached
+         */
+        public long getAge() {
+            return (System.currentTimeMillis() - time) / 1000;
+        }
+    }
+
+    // in access order, the least recently used first
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final int size;
+    private final long maxBytes;
+    private long bytes;
+    private long hits, misses;
+
+    public ResponseCache(int size, long maxBytes) {
+        this.size = size;
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized void put(String key, BufferPool.Entity entity) {
+        if (entity.size() > maxBytes) return;
+        entity.retain(1);
+        bytes += entity.size();
+        Entry old = entries.put(key, new Entry(entity));
+        if (old != null) release(old);
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext() && (entries.size() > size || bytes > maxBytes); ) {
+            Entry eldest = it.next();
+            it.remove();
+            release(eldest);
+        }
+    }
+
+    private void release(Entry entry) {
+        bytes -= entry.entity.size();
+        entry.entity.release();
+    }
+
+    /**
+     * @return the cached response, its entity retained for one more write, or null
+     */
+    public synchronized Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        entry.entity.retain(1);
+        return entry;
+    }
+
+    /**
+     * Removes the responses of all versions of the endpoint.
+     */
+    public synchronized void forget(String key) {
+        String prefix = key + Endpoint.VERSION_SEPARATOR;
+        for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Entry> entry = it.next();
+            if (!entry.getKey().startsWith(prefix)) continue;
+            release(entry.getValue());
+            it.remove();
+        }
+    }
+
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            release(entry);
+        }
+        entries.clear();
+    }
+
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("entries", entries.size());
+        result.put("bytes", bytes);
+        result.put("hits", hits);
+        result.put("misses", misses);
+        return result;
+    }
+}
@@ -0,0 +1,284 @@
+package org.neo4j.cypher_rs;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.util.MinimalPrettyPrinter;
+import org.neo4j.cypher.javacompat.ExecutionResult;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.server.rest.repr.BadInputException;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Streams the rows of an endpoint call while the query is still running, as newline delimited json or server-sent events.
+ * The first row is flushed right away, later rows at least every {@link #FLUSH_INTERVAL} ms.
+ * Rows stop at the endpoint's row and byte limits, the summary tells which one cut them off.
+ * The last message is the summary, or an error if the call failed after the response was started.
+ *
+ * Messages: {"row":...} ({"call":1,"row":...} for several parameter sets), {"summary":{"rows":2,"millis":12}},
+ * {"error":"...","status":504}, as server-sent events with the event names row, summary and error.
+ */
+public class ResultStream implements StreamingOutput {
+    public static final String NDJSON = "application/x-ndjson";
+    public static final String EVENT_STREAM = "text/event-stream";
+    public static final long FLUSH_INTERVAL = Long.getLong("cypher_rs.stream_flush", 100);
+
+    private static final int GATEWAY_TIMEOUT = 504;
+    // messages are separated by line breaks written as raw text, not by the default space
+    private static final MinimalPrettyPrinter SEPARATOR = new MinimalPrettyPrinter() {
+        @Override
+        public void writeRootValueSeparator(JsonGenerator gen) {
+        }
+    };
+
+    public enum Format {
+        NDJSON(ResultStream.NDJSON), SSE(EVENT_STREAM);
+
+        private final String mediaType;
+
+        Format(String mediaType) {
+            this.mediaType = mediaType;
+        }
+
+        public String getMediaType() {
+            return mediaType;
+        }
+
+        /**
+         * @return the format asked for with the Accept header, null for a plain json response
+         */
+        public static Format fromAccept(String accept) {
+            if (accept == null) return null;
+            if (accept.contains(EVENT_STREAM)) return SSE;
+            if (accept.contains(ResultStream.NDJSON)) return NDJSON;
+            return null;
+        }
+    }
+
+    private final GraphDatabaseService db;
+    private final EndpointExecutor executor;
+    private final Endpoint endpoint;
+    private final List<Map<String, Object>> params;
+    private final boolean write;
+    private final CypherResultRenderer renderer;
+    private final Deadline deadline;
+    private final long maxBytes;
+    private final Format format;
+    private final ExecutorService readExecutor;
+    private final long start = System.currentTimeMillis();
+
+    private OutputStream out;
+    private CypherResultRenderer.CountingOutputStream counted;
+    private JsonGenerator gen;
+    private long lastFlush;
+    private int rows;
+    private String truncated;
+
+    /**
+     * @param write if the transaction is committed after all rows were streamed
+     * @param readExecutor where reads run, null to run on the calling thread
+     */
+    public ResultStream(GraphDatabaseService db, EndpointExecutor executor, EndpointCall call, boolean write,
+                        Format format, ExecutorService readExecutor) throws BadInputException {
+        this.db = db;
+        this.executor = executor;
+        this.endpoint = call.getEndpoint();
+        this.params = call.getParams();
+        this.write = write;
+        this.renderer = call.newRenderer();
+        // side tables can only be written after all rows, which defeats streaming
+        if (renderer instanceof RichResultRenderer) throw new BadInputException("Rich rendering is not supported for streamed results");
+        this.deadline = call.getDeadline();
+        this.maxBytes = call.getMaxBytes();
+        this.format = format;
+        this.readExecutor = readExecutor;
+    }
+
+    /**
+     * Called when the stream is done, with the status the call would have had as plain json response.
+     */
+    protected void finished(int status, int rows) {
+    }
+
+    /**
+     * Admission is only asked for here, as Jersey doesn't write the entity of HEAD requests,
+     * a rejected call is reported like any error after the response was started.
+     */
+    @Override
+    public void write(final OutputStream out) throws IOException, WebApplicationException {
+        this.out = out;
+        AdmissionControl.Ticket ticket;
+        try {
+            ticket = executor.admit(endpoint);
+        } catch (RejectedException e) {
+            gen = generator(out);
+            int status = error(e.getStatus(), e.getMessage());
+            finished(status, rows);
+            gen.close();
+            return;
+        }
+        try {
+            if (readExecutor == null) {
+                stream(out);
+                return;
+            }
+            FutureTask<Void> task = new FutureTask<>(new Callable<Void>() {
+                public Void call() throws IOException {
+                    stream(out);
+                    return null;
+                }
+            });
+            try {
+                readExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // read pool is saturated, stream from here instead
+                task.run();
+            }
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                task.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while streaming results", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            }
+        } finally {
+            ticket.close();
+        }
+    }
+
+    private JsonGenerator generator(OutputStream out) throws IOException {
+        JsonGenerator gen = Utils.OBJECT_MAPPER.getJsonFactory().createJsonGenerator(out, JsonEncoding.UTF8);
+        gen.setPrettyPrinter(SEPARATOR);
+        return gen;
+    }
+
+    private void stream(OutputStream out) throws IOException {
+        // the generator's flushes only count the bytes, the response is flushed at the flush interval
+        counted = new CypherResultRenderer.CountingOutputStream(out) {
+            @Override
+            public void flush() {
+            }
+        };
+        gen = generator(counted);
+        int status = 200;
+        try {
+            UpdateStatistics stats = new UpdateStatistics();
+            // reads don't change anything, so their transaction is just released instead of committed
+            try (Transaction tx = db.beginTx()) {
+                for (int call = 0; call < params.size() && truncated == null; call++) {
+                    deadline.check();
+                    ExecutionResult result = executor.execute(endpoint, params.get(call));
+                    int before = rows;
+                    streamRows(result, params.size() > 1 ? call : -1);
+                    if (write) stats.add(result, rows - before);
+                }
+                if (write) tx.success();
+            }
+            message("summary", summary(stats));
+        } catch (QueryTimeoutException e) {
+            status = error(GATEWAY_TIMEOUT, e.getMessage());
+        } catch (IOException e) {
+            // the client went away
+            status = 500;
+            throw e;
+        } catch (Exception e) {
+            e.printStackTrace();
+            status = error(500, String.valueOf(e.getMessage()));
+        } finally {
+            finished(status, rows);
+        }
+        gen.close();
+    }
+
+    private void streamRows(ExecutionResult result, int call) throws IOException {
+        try (ResourceIterator<Map<String, Object>> it = result.iterator()) {
+            while (it.hasNext()) {
+                deadline.check();
+                if (renderer.getMaxRows() > 0 && rows == renderer.getMaxRows()) {
+                    truncated = CypherResultRenderer.TRUNCATED_ROWS;
+                    break;
+                }
+                if (renderer.overBudget()) {
+                    truncated = renderer.getTruncated();
+                    break;
+                }
+                if (maxBytes > 0) {
+                    gen.flush();
+                    if (counted.size() >= maxBytes) {
+                        truncated = CypherResultRenderer.TRUNCATED_BYTES;
+                        break;
+                    }
+                }
+                Object row = renderer.convertRow(it.next());
+                start("row");
+                gen.writeStartObject();
+                if (call != -1) gen.writeNumberField("call", call);
+                gen.writeObjectField("row", row);
+                gen.writeEndObject();
+                end();
+                if (rows++ == 0 || System.currentTimeMillis() - lastFlush >= FLUSH_INTERVAL) flush();
+            }
+        }
+    }
+
+    private Map<String, Object> summary(UpdateStatistics stats) {
+        Map<String, Object> summary = write ? stats.toMap() : new LinkedHashMap<String, Object>();
+        summary.put("rows", rows);
+        summary.put("millis", System.currentTimeMillis() - start);
+        if (write) summary.put("committed", true);
+        if (truncated != null) summary.put("truncated", truncated);
+        return summary;
+    }
+
+    private int error(int status, String message) throws IOException {
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("error", message);
+        error.put("status", status);
+        if (write) error.put("committed", false);
+        error.put("rows", rows);
+        start("error");
+        gen.writeObject(error);
+        end();
+        flush();
+        return status;
+    }
+
+    private void message(String event, Object value) throws IOException {
+        start(event);
+        gen.writeStartObject();
+        gen.writeObjectField(event, value);
+        gen.writeEndObject();
+        end();
+        flush();
+    }
+
+    private void start(String event) throws IOException {
+        if (format == Format.SSE) gen.writeRaw("event: " + event + "\ndata: ");
+    }
+
+    private void end() throws IOException {
+        gen.writeRaw(format == Format.SSE ? "\n\n" : "\n");
+    }
+
+    private void flush() throws IOException {
+        gen.flush();
+        out.flush();
+        lastFlush = System.currentTimeMillis();
+    }
+}
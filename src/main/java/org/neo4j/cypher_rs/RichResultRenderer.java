@@ -0,0 +1,123 @@
+package org.neo4j.cypher_rs;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.neo4j.cypher.javacompat.ExecutionResult;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Renders nodes with id and labels and relationships with id, type, start and end node.
+ * Each entity is rendered once per response in the side tables {@code nodes} and {@code relationships},
+ * rows only contain references to them: {@code {"@node":1}} and {@code {"@rel":4}}. Of several results in one response
+ * each table only holds the entities not written with an earlier result, see {@link #after}.
+ *
+ * Output: {"rows":[...],"nodes":{"1":{"id":1,"labels":["Person"],"properties":{...}}},"relationships":{...}}
+ */
+public class RichResultRenderer extends CypherResultRenderer {
+    public static final String NODE_REF = "@node";
+    public static final String REL_REF = "@rel";
+
+    private final Map<String, Map<String, Object>> nodes = new LinkedHashMap<>();
+    private final Map<String, Map<String, Object>> relationships = new LinkedHashMap<>();
+    // ids of the entities written with earlier results of the same response
+    private Set<String> writtenNodes = new HashSet<>();
+    private Set<String> writtenRelationships = new HashSet<>();
+
+    public RichResultRenderer(FieldFilter fields) {
+        super(fields);
+    }
+
+    @Override
+    RichResultRenderer after(CypherResultRenderer previous) {
+        if (previous instanceof RichResultRenderer) {
+            writtenNodes = ((RichResultRenderer) previous).writtenNodes;
+            writtenRelationships = ((RichResultRenderer) previous).writtenRelationships;
+        }
+        return this;
+    }
+
+    @Override
+    public Object render(ExecutionResult result, Deadline deadline) {
+        Object rows = super.render(result, deadline);
+        if (rows == null) return null;
+
+        // rows are written first, so streamed paths register their elements before the tables are written
+        Map<String, Object> output = new LinkedHashMap<>();
+        output.put("rows", rows);
+        output.put("nodes", nodes);
+        output.put("relationships", relationships);
+        return output;
+    }
+
+    // the byte limit only applies to the rows
+    @Override
+    void writeResult(JsonGenerator gen, Iterator<Map<String, Object>> rows, Deadline deadline, CountingOutputStream out, long maxBytes) throws IOException {
+        gen.writeStartObject();
+        gen.writeFieldName("rows");
+        super.writeResult(gen, rows, deadline, out, maxBytes);
+        gen.writeObjectField("nodes", nodes);
+        gen.writeObjectField("relationships", relationships);
+        gen.writeEndObject();
+        writtenNodes.addAll(nodes.keySet());
+        writtenRelationships.addAll(relationships.keySet());
+    }
+
+    @Override
+    Map<String, Object> convert(PropertyContainer pc, FieldFilter filter) {
+        if (pc instanceof Node) {
+            Node node = (Node) pc;
+            Map<String, Object> entry = entry(nodes, writtenNodes, node.getId(), pc, filter);
+            if (entry != null && !entry.containsKey("labels")) entry.put("labels", labels(node));
+            return Collections.<String, Object>singletonMap(NODE_REF, node.getId());
+        }
+        if (pc instanceof Relationship) {
+            Relationship rel = (Relationship) pc;
+            Map<String, Object> entry = entry(relationships, writtenRelationships, rel.getId(), pc, filter);
+            if (entry != null && !entry.containsKey("type")) {
+                entry.put("type", rel.getType().name());
+                entry.put("start", rel.getStartNode().getId());
+                entry.put("end", rel.getEndNode().getId());
+            }
+            return Collections.<String, Object>singletonMap(REL_REF, rel.getId());
+        }
+        return super.convert(pc, filter);
+    }
+
+    // an entity can be projected differently at several places, the side table holds the union of its properties,
+    // null if the entity was already written with an earlier result
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> entry(Map<String, Map<String, Object>> table, Set<String> written, long id, PropertyContainer pc, FieldFilter filter) {
+        String key = String.valueOf(id);
+        if (written.contains(key)) return null;
+        Map<String, Object> entry = table.get(key);
+        if (entry == null) {
+            entry = new LinkedHashMap<>();
+            entry.put("id", id);
+            entry.put("properties", new TreeMap<String, Object>());
+            table.put(key, entry);
+        }
+        ((Map<String, Object>) entry.get("properties")).putAll(super.convert(pc, filter));
+        return entry;
+    }
+
+    private List<String> labels(Node node) {
+        List<String> result = new ArrayList<>();
+        for (Label label : node.getLabels()) {
+            result.add(label.name());
+        }
+        return result;
+    }
+}
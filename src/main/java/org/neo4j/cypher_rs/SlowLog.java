@@ -0,0 +1,203 @@
+package org.neo4j.cypher_rs;
+
+import org.neo4j.cypher.javacompat.ExecutionEngine;
+import org.neo4j.cypher.javacompat.ExecutionResult;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the last {@code cypher_rs.slow_log_size} (100) endpoint calls that took longer than {@code cypher_rs.slow_threshold}
+ * ms (1000, 0 disables it) with their sanitized parameters, row count and phase timings.
+ * The first slow call of each read-only endpoint version is re-run with {@code PROFILE} in the background,
+ * within the endpoint's timeout, and its plan is kept for the version. Calls that timed out or were rejected are not re-run. Entries get the plan once it is there, entries of write endpoints,
+ * which can't be re-run, have none.
+ */
+public class SlowLog {
+    public static final long THRESHOLD = Long.getLong("cypher_rs.slow_threshold", 1000);
+    public static final int SIZE = Integer.getInteger("cypher_rs.slow_log_size", 100);
+
+    static final int MAX_VALUE_LENGTH = 64;
+    static final int MAX_LIST_SIZE = 10;
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVICE_UNAVAILABLE = 503;
+    private static final int GATEWAY_TIMEOUT = 504;
+    private static final String[] SECRET_NAMES = {"password", "secret", "token", "credential"};
+
+    private final GraphDatabaseService db;
+    private final ExecutionEngine engine;
+    private final long threshold;
+    private final Entry[] entries;
+    private long count;
+    private final ConcurrentMap<String, String> plans = new ConcurrentHashMap<>();
+    private final Set<String> profiling = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ThreadPoolExecutor profiler = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(10), new CypherRsContext.NamedThreadFactory("cypher-rs-profile"));
+
+    public SlowLog(GraphDatabaseService db, ExecutionEngine engine, long threshold, int size) {
+        this.db = db;
+        this.engine = engine;
+        this.threshold = threshold;
+        this.entries = new Entry[size];
+    }
+
+    public static class Entry {
+        private final long time = System.currentTimeMillis();
+        private final String endpoint;
+        private final String method;
+        private final int status;
+        private final long millis;
+        private final int rows;
+        private final Map<String, Object> params;
+        private final Map<String, Double> phases;
+
+        Entry(String endpoint, String method, int status, long millis, int rows, Map<String, Object> params, Map<String, Double> phases) {
+            this.endpoint = endpoint;
+            this.method = method;
+            this.status = status;
+            this.millis = millis;
+            this.rows = rows;
+            this.params = params;
+            this.phases = phases;
+        }
+
+        Map<String, Object> toMap(String plan) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("time", time);
+            result.put("endpoint", endpoint);
+            result.put("method", method);
+            result.put("status", status);
+            result.put("millis", millis);
+            result.put("rows", rows);
+            result.put("params", params);
+            result.put("phases", phases);
+            if (plan != null) result.put("plan", plan);
+            return result;
+        }
+    }
+
+    public boolean isSlow(long millis) {
+        return threshold > 0 && millis >= threshold;
+    }
+
+    /**
+     * Records the call if it was slow, calls of unknown endpoints are ignored.
+     */
+    public void record(Invocation invocation, int status) {
+        long millis = invocation.getMillis();
+        Endpoint endpoint = invocation.getEndpoint();
+        if (!isSlow(millis) || endpoint == null) return;
+        Entry entry = new Entry(endpoint.getId(), invocation.getMethod(), status, millis, invocation.getRows(),
+                sanitize(invocation.getParams()), invocation.getPhases());
+        synchronized (entries) {
+            entries[(int) (count++ % entries.length)] = entry;
+        }
+        if (status == GATEWAY_TIMEOUT || status == TOO_MANY_REQUESTS || status == SERVICE_UNAVAILABLE) return;
+        if (!Utils.isWriteQuery(endpoint.getQuery()) && !plans.containsKey(endpoint.getId())) profile(endpoint, invocation.getParams());
+    }
+
+    // reruns the query with PROFILE, read-only queries only, the transaction is never committed
+    private void profile(final Endpoint endpoint, final Map<String, Object> params) {
+        if (!profiling.add(endpoint.getId())) return;
+        try {
+            profiler.execute(new Runnable() {
+                public void run() {
+                    try (Transaction tx = db.beginTx()) {
+                        Deadline deadline = Deadline.forEndpoint(endpoint, null);
+                        ExecutionResult result = engine.profile(endpoint.getQuery(), params);
+                        try (ResourceIterator<Map<String, Object>> it = result.iterator()) {
+                            while (it.hasNext()) {
+                                deadline.check();
+                                it.next();
+                            }
+                        }
+                        plans.put(endpoint.getId(), result.executionPlanDescription().toString());
+                    } catch (Exception e) {
+                        plans.put(endpoint.getId(), "PROFILE failed: " + e.getMessage());
+                    } finally {
+                        profiling.remove(endpoint.getId());
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            profiling.remove(endpoint.getId());
+        }
+    }
+
+    public void shutdown() {
+        profiler.shutdownNow();
+    }
+
+    public void forget(String key) {
+        String prefix = key + Endpoint.VERSION_SEPARATOR;
+        for (String id : plans.keySet()) {
+            if (id.startsWith(prefix)) plans.remove(id);
+        }
+    }
+
+    static Map<String, Object> sanitize(Map<String, Object> params) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : params.entrySet()) {
+            result.put(entry.getKey(), isSecret(entry.getKey()) ? "***" : sanitize(entry.getValue()));
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object sanitize(Object value) {
+        if (value instanceof String) {
+            String string = (String) value;
+            return string.length() <= MAX_VALUE_LENGTH ? string : string.substring(0, MAX_VALUE_LENGTH) + "...";
+        }
+        if (value instanceof Map) return sanitize((Map<String, Object>) value);
+        if (value instanceof Collection) {
+            Collection<Object> values = (Collection<Object>) value;
+            if (values.size() > MAX_LIST_SIZE) return "[" + values.size() + " values]";
+            List<Object> result = new ArrayList<>(values.size());
+            for (Object element : values) {
+                result.add(sanitize(element));
+            }
+            return result;
+        }
+        return value;
+    }
+
+    private static boolean isSecret(String name) {
+        String lower = name.toLowerCase();
+        for (String secret : SECRET_NAMES) {
+            if (lower.contains(secret)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the recorded calls, newest first
+     */
+    public Map<String, Object> toMap() {
+        List<Map<String, Object>> list = new ArrayList<>();
+        synchronized (entries) {
+            for (long i = count - 1; i >= 0 && i >= count - entries.length; i--) {
+                Entry entry = entries[(int) (i % entries.length)];
+                list.add(entry.toMap(plans.get(entry.endpoint)));
+            }
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("threshold_ms", threshold);
+        result.put("entries", list);
+        return result;
+    }
+}
@@ -0,0 +1,332 @@
+package org.neo4j.cypher_rs;
+
+import au.com.bytecode.opencsv.CSVReader;
+import au.com.bytecode.opencsv.CSVWriter;
+import org.neo4j.server.rest.repr.BadInputException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Returns the lines of a CSV source ordered by key columns, so that lines touching the same nodes are executed together.
+ * Sorts with an external merge sort: runs of {@link #BUFFER} lines are sorted in memory and spilled to temporary files,
+ * which are merged while the lines are returned. At most {@link #FAN_IN} files are open at a time, if there are more
+ * they are first merged in passes into fewer, larger ones. Integers are compared as numbers and come before other values.
+ *
+ * When grouping, consecutive lines with the same keys are returned as one parameter map with the key columns
+ * and the lines in {@code rows}: {"from":1,"rows":[{"from":1,"to":2},{"from":1,"to":5}]}
+ * The importer counts a group as one line, so a batch holds that many groups, however many lines they have.
+ */
+public class SortedSource implements BatchImporter.Source, Closeable {
+    public static final int BUFFER = Integer.getInteger("cypher_rs.sort_buffer", 100000);
+    public static final int FAN_IN = Integer.getInteger("cypher_rs.sort_fan_in", 64);
+    public static final String ROWS = "rows";
+
+    private static final char SPILL_ESCAPE = '\\';
+
+    private final BatchImporter.Source source;
+    private final String[] columns;
+    private final int[] keys;
+    private final int buffer;
+    private final boolean group;
+    private int fanIn = FAN_IN;
+    private final List<File> spills = new ArrayList<>();
+    // lines that couldn't be read, they are reported before the sorted lines
+    private final Deque<Map.Entry<BatchImporter.Record, String>> unreadable = new ArrayDeque<>();
+    private PriorityQueue<Run> runs;
+    private List<BatchImporter.Record> current = Collections.emptyList();
+
+    /**
+     * @param keys the names of the columns to sort by
+     * @param group if lines with the same keys are returned together
+     */
+    public SortedSource(BatchImporter.Source source, List<String> keys, int buffer, boolean group) throws BadInputException {
+        this.source = source;
+        this.columns = source.getColumns();
+        this.keys = new int[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            this.keys[i] = indexOf(keys.get(i));
+        }
+        this.buffer = buffer;
+        this.group = group;
+    }
+
+    /**
+     * @param fanIn how many spill files are merged at once, at least 2
+     */
+    public SortedSource withFanIn(int fanIn) {
+        this.fanIn = Math.max(2, fanIn);
+        return this;
+    }
+
+    private int indexOf(String key) throws BadInputException {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(key)) return i;
+        }
+        throw new BadInputException("Unknown sort column " + key);
+    }
+
+    @Override
+    public Map<String, Object> next() throws IOException, BadInputException {
+        if (runs == null) sort();
+        if (!unreadable.isEmpty()) {
+            Map.Entry<BatchImporter.Record, String> line = unreadable.poll();
+            current = Collections.singletonList(line.getKey());
+            throw new BadInputException(line.getValue());
+        }
+        BatchImporter.Record first = take();
+        if (first == null) {
+            close();
+            return null;
+        }
+        current = new ArrayList<>();
+        current.add(first);
+        if (!group) return toParams(first);
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        rows.add(toParams(first));
+        while (runs.peek() != null && compareKeys(runs.peek().head.values, first.values) == 0) {
+            BatchImporter.Record record = take();
+            current.add(record);
+            rows.add(toParams(record));
+        }
+        Map<String, Object> params = new LinkedHashMap<>();
+        for (int key : keys) {
+            params.put(columns[key], BatchImporter.convert(first.values[key]));
+        }
+        params.put(ROWS, rows);
+        return params;
+    }
+
+    @Override
+    public int getLine() {
+        return current.isEmpty() ? 0 : current.get(0).line;
+    }
+
+    @Override
+    public String[] getColumns() {
+        return columns;
+    }
+
+    @Override
+    public List<BatchImporter.Record> getRecords() {
+        return current;
+    }
+
+    private Map<String, Object> toParams(BatchImporter.Record record) throws BadInputException {
+        Map<String, Object> params = new LinkedHashMap<>(columns.length);
+        for (int i = 0; i < columns.length; i++) {
+            params.put(columns[i], BatchImporter.convert(record.values[i]));
+        }
+        return params;
+    }
+
+    private void sort() throws IOException {
+        List<BatchImporter.Record> records = new ArrayList<>();
+        while (true) {
+            try {
+                if (source.next() == null) break;
+                records.add(source.getRecords().get(0));
+            } catch (BadInputException e) {
+                unreadable.add(new AbstractMap.SimpleEntry<>(source.getRecords().get(0), e.getMessage()));
+                continue;
+            }
+            if (records.size() == buffer) {
+                spill(records);
+                records.clear();
+            }
+        }
+        Collections.sort(records, order);
+        while (spills.size() > fanIn) {
+            mergeSpills();
+        }
+        runs = newRuns(spills.size() + 1);
+        add(new MemoryRun(records.iterator()));
+        for (File spill : spills) {
+            add(new FileRun(spill));
+        }
+    }
+
+    private PriorityQueue<Run> newRuns(int size) {
+        return new PriorityQueue<>(size, new Comparator<Run>() {
+            public int compare(Run a, Run b) {
+                return order.compare(a.head, b.head);
+            }
+        });
+    }
+
+    private void spill(List<BatchImporter.Record> records) throws IOException {
+        Collections.sort(records, order);
+        File file = newSpill();
+        try (CSVWriter writer = newWriter(file)) {
+            for (BatchImporter.Record record : records) {
+                write(writer, record);
+            }
+        }
+    }
+
+    // merges the oldest fanIn spills into one new spill, the others are deleted
+    private void mergeSpills() throws IOException {
+        List<File> merged = new ArrayList<>(spills.subList(0, fanIn));
+        spills.subList(0, fanIn).clear();
+        File file = newSpill();
+        PriorityQueue<Run> pass = newRuns(merged.size());
+        try (CSVWriter writer = newWriter(file)) {
+            for (File spill : merged) {
+                Run run = new FileRun(spill);
+                if (run.advance()) pass.add(run);
+                else run.close();
+            }
+            for (Run run = pass.poll(); run != null; run = pass.poll()) {
+                write(writer, run.head);
+                if (run.advance()) pass.add(run);
+                else run.close();
+            }
+        } finally {
+            for (Run run : pass) {
+                run.close();
+            }
+            for (File spill : merged) {
+                if (!spill.delete()) spill.deleteOnExit();
+            }
+        }
+    }
+
+    private File newSpill() throws IOException {
+        // deleted by close, registering every spill with deleteOnExit would keep their paths until the JVM exits
+        File file = File.createTempFile("cypher-rs-sort-", ".csv");
+        spills.add(file);
+        return file;
+    }
+
+    private static CSVWriter newWriter(File file) throws IOException {
+        return new CSVWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), ',', '"', SPILL_ESCAPE);
+    }
+
+    private static void write(CSVWriter writer, BatchImporter.Record record) {
+        String[] row = new String[record.values.length + 1];
+        row[0] = String.valueOf(record.line);
+        System.arraycopy(record.values, 0, row, 1, record.values.length);
+        writer.writeNext(row);
+    }
+
+    private void add(Run run) throws IOException {
+        if (run.advance()) runs.add(run);
+        else run.close();
+    }
+
+    private BatchImporter.Record take() throws IOException {
+        Run run = runs.poll();
+        if (run == null) return null;
+        BatchImporter.Record record = run.head;
+        add(run);
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (runs != null) {
+            for (Run run : runs) {
+                run.close();
+            }
+            runs.clear();
+        }
+        for (File spill : spills) {
+            if (!spill.delete()) spill.deleteOnExit();
+        }
+        spills.clear();
+    }
+
+    // lines with equal keys keep their order in the file
+    private final Comparator<BatchImporter.Record> order = new Comparator<BatchImporter.Record>() {
+        public int compare(BatchImporter.Record a, BatchImporter.Record b) {
+            int result = compareKeys(a.values, b.values);
+            return result != 0 ? result : Integer.compare(a.line, b.line);
+        }
+    };
+
+    private int compareKeys(String[] a, String[] b) {
+        for (int key : keys) {
+            int result = compareValues(a[key], b[key]);
+            if (result != 0) return result;
+        }
+        return 0;
+    }
+
+    static int compareValues(String a, String b) {
+        boolean aInteger = isInteger(a), bInteger = isInteger(b);
+        if (aInteger && bInteger) return Long.compare(Long.parseLong(a), Long.parseLong(b));
+        if (aInteger != bInteger) return aInteger ? -1 : 1;
+        return a.compareTo(b);
+    }
+
+    // also with leading zeros, which are imported as numbers, so that 007 and 7 are one group
+    private static boolean isInteger(String value) {
+        int start = value.startsWith("-") ? 1 : 0;
+        if (value.length() == start || value.length() - start > 18) return false;
+        for (int i = start; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    private abstract static class Run implements Closeable {
+        BatchImporter.Record head;
+
+        abstract boolean advance() throws IOException;
+
+        public void close() throws IOException {
+        }
+    }
+
+    private static class MemoryRun extends Run {
+        private final Iterator<BatchImporter.Record> records;
+
+        MemoryRun(Iterator<BatchImporter.Record> records) {
+            this.records = records;
+        }
+
+        boolean advance() {
+            head = records.hasNext() ? records.next() : null;
+            return head != null;
+        }
+    }
+
+    private static class FileRun extends Run {
+        private final CSVReader reader;
+
+        FileRun(File file) throws IOException {
+            reader = new CSVReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), ',', '"', SPILL_ESCAPE);
+        }
+
+        boolean advance() throws IOException {
+            String[] row = reader.readNext();
+            if (row == null) return false;
+            String[] values = new String[row.length - 1];
+            System.arraycopy(row, 1, values, 0, values.length);
+            head = new BatchImporter.Record(Integer.parseInt(row[0]), values);
+            return true;
+        }
+
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
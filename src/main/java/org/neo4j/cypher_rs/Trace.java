@@ -0,0 +1,154 @@
+package org.neo4j.cypher_rs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The spans of one traced endpoint call: a root span for the call and one child span per phase.
+ * {@link #NONE} is used for calls that are not sampled, all its operations do nothing.
+ */
+public class Trace {
+    public static final Trace NONE = new Trace(null, null, null, null);
+
+    private final Tracing tracing;
+    private final String traceId;
+    private final long epochNanos = System.currentTimeMillis() * 1000000L;
+    private final long startNanos = System.nanoTime();
+    private final List<Span> spans = new ArrayList<>();
+    private final Span root;
+
+    Trace(Tracing tracing, String name, String traceId, String parentId) {
+        this.tracing = tracing;
+        this.traceId = traceId;
+        this.root = tracing == null ? Span.NONE : new Span(this, name, parentId);
+    }
+
+    public boolean isRecording() {
+        return tracing != null;
+    }
+
+    public Span getRoot() {
+        return root;
+    }
+
+    /**
+     * Starts a span for a phase of the call.
+     */
+    public Span start(String name) {
+        if (tracing == null) return Span.NONE;
+        return new Span(this, name, root.spanId);
+    }
+
+    /**
+     * Ends the root span and exports all spans.
+     */
+    public void end() {
+        if (tracing == null) return;
+        root.end();
+        List<Span> finished;
+        synchronized (spans) {
+            finished = new ArrayList<>(spans);
+        }
+        tracing.export(finished);
+    }
+
+    private long now() {
+        return epochNanos + System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return the value as OTLP AnyValue, e.g. {@code {"intValue":"42"}}
+     */
+    static Map<String, Object> anyValue(Object value) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (value instanceof Boolean) {
+            result.put("boolValue", value);
+        } else if (value instanceof Double || value instanceof Float) {
+            result.put("doubleValue", value);
+        } else if (value instanceof Number) {
+            result.put("intValue", String.valueOf(((Number) value).longValue()));
+        } else if (value instanceof Iterable) {
+            List<Object> values = new ArrayList<>();
+            for (Object element : (Iterable<?>) value) {
+                values.add(anyValue(element));
+            }
+            result.put("arrayValue", Collections.singletonMap("values", values));
+        } else {
+            result.put("stringValue", String.valueOf(value));
+        }
+        return result;
+    }
+
+    static String randomId(int length) {
+        StringBuilder id = new StringBuilder(length);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < length; i++) {
+            id.append(Character.forDigit(random.nextInt(16), 16));
+        }
+        return id.toString();
+    }
+
+    public static class Span {
+        static final Span NONE = new Span(null, null, null);
+        private static final int SPAN_KIND_INTERNAL = 1;
+        private static final int SPAN_KIND_SERVER = 2;
+
+        private final Trace trace;
+        private final String name;
+        private final String spanId;
+        private final String parentId;
+        private final long start;
+        private long end;
+        private final Map<String, Object> attributes = new LinkedHashMap<>();
+
+        private Span(Trace trace, String name, String parentId) {
+            this.trace = trace;
+            this.name = name;
+            this.parentId = parentId;
+            this.spanId = trace == null ? null : randomId(16);
+            this.start = trace == null ? 0 : trace.now();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Span set(String key, Object value) {
+            if (trace != null) attributes.put(key, value);
+            return this;
+        }
+
+        public void end() {
+            if (trace == null || end != 0) return;
+            end = trace.now();
+            synchronized (trace.spans) {
+                trace.spans.add(this);
+            }
+        }
+
+        // an OTLP span, 64 bit integers are strings as in the protobuf json mapping
+        Map<String, Object> toMap() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("traceId", trace.traceId);
+            result.put("spanId", spanId);
+            if (parentId != null) result.put("parentSpanId", parentId);
+            result.put("name", name);
+            result.put("kind", this == trace.root ? SPAN_KIND_SERVER : SPAN_KIND_INTERNAL);
+            result.put("startTimeUnixNano", String.valueOf(start));
+            result.put("endTimeUnixNano", String.valueOf(end));
+            List<Map<String, Object>> keyValues = new ArrayList<>(attributes.size());
+            for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+                Map<String, Object> keyValue = new LinkedHashMap<>();
+                keyValue.put("key", attribute.getKey());
+                keyValue.put("value", anyValue(attribute.getValue()));
+                keyValues.add(keyValue);
+            }
+            result.put("attributes", keyValues);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.neo4j.cypher_rs;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Samples endpoint calls for tracing and exports their spans.
+ *
+ * A call is traced if it carries a W3C {@code traceparent} header with the sampled flag, or otherwise with the probability
+ * {@code cypher_rs.trace_sample} (0.0 - 1.0, default 0, off). Each finished trace is written as one line of OTLP json,
+ * an ExportTraceServiceRequest as written by the OpenTelemetry file exporter, to the file {@code cypher_rs.trace_file}
+ * or if none is set to the log {@code org.neo4j.cypher_rs.trace}.
+ */
+public class Tracing {
+    public static final double SAMPLE_RATE = Double.parseDouble(System.getProperty("cypher_rs.trace_sample", "0"));
+    public static final String TRACE_FILE = System.getProperty("cypher_rs.trace_file");
+
+    static final String SERVICE_NAME = "cypher-rs";
+    private static final String SCOPE = "org.neo4j.cypher_rs";
+    private static final Logger LOG = Logger.getLogger("org.neo4j.cypher_rs.trace");
+    private static final Pattern TRACEPARENT = Pattern.compile("(?!ff)[0-9a-f]{2}-([0-9a-f]{32})-([0-9a-f]{16})-([0-9a-f]{2})");
+
+    private final double sampleRate;
+    private final String file;
+
+    public Tracing(double sampleRate, String file) {
+        this.sampleRate = sampleRate;
+        this.file = file;
+    }
+
+    /**
+     * @param traceparent the incoming {@code traceparent} header or null
+     * @return {@link Trace#NONE} if the call is not sampled
+     */
+    public Trace start(String name, String traceparent) {
+        // version-traceid-parentid-flags, a malformed header is treated as absent
+        Matcher parent = traceparent == null ? null : TRACEPARENT.matcher(traceparent.trim());
+        if (parent != null && parent.matches() && !isZero(parent.group(1)) && !isZero(parent.group(2))) {
+            boolean sampled = (Integer.parseInt(parent.group(3), 16) & 1) != 0;
+            return sampled ? new Trace(this, name, parent.group(1), parent.group(2)) : Trace.NONE;
+        }
+        if (sampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate) return Trace.NONE;
+        return new Trace(this, name, Trace.randomId(32), null);
+    }
+
+    private static boolean isZero(String id) {
+        for (int i = 0; i < id.length(); i++) {
+            if (id.charAt(i) != '0') return false;
+        }
+        return true;
+    }
+
+    void export(List<Trace.Span> spans) {
+        String line;
+        try {
+            line = Utils.toJson(request(spans)) + "\n";
+        } catch (IOException e) {
+            LOG.warning("Could not serialize spans: " + e.getMessage());
+            return;
+        }
+        if (file == null) {
+            LOG.info(line);
+            return;
+        }
+        synchronized (this) {
+            try (Writer writer = new FileWriter(file, true)) {
+                writer.write(line);
+            } catch (IOException e) {
+                LOG.warning("Could not write spans to " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // {"resourceSpans":[{"resource":{"attributes":[...]},"scopeSpans":[{"scope":{"name":"..."},"spans":[...]}]}]}
+    static Map<String, Object> request(List<Trace.Span> spans) {
+        List<Map<String, Object>> otlpSpans = new ArrayList<>(spans.size());
+        for (Trace.Span span : spans) {
+            otlpSpans.add(span.toMap());
+        }
+        Map<String, Object> scopeSpans = new LinkedHashMap<>();
+        scopeSpans.put("scope", Collections.singletonMap("name", SCOPE));
+        scopeSpans.put("spans", otlpSpans);
+        Map<String, Object> serviceName = new LinkedHashMap<>();
+        serviceName.put("key", "service.name");
+        serviceName.put("value", Trace.anyValue(SERVICE_NAME));
+        Map<String, Object> resourceSpans = new LinkedHashMap<>();
+        resourceSpans.put("resource", Collections.singletonMap("attributes", Collections.singletonList(serviceName)));
+        resourceSpans.put("scopeSpans", Collections.singletonList(scopeSpans));
+        return Collections.<String, Object>singletonMap("resourceSpans", Collections.singletonList(resourceSpans));
+    }
+}
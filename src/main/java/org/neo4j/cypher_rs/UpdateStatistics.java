@@ -0,0 +1,77 @@
+package org.neo4j.cypher_rs;
+
+import org.neo4j.cypher.javacompat.ExecutionResult;
+import org.neo4j.cypher.javacompat.QueryStatistics;
+import org.neo4j.graphdb.ResourceIterator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sums the update statistics and row counts of several executions, results are drained without being rendered.
+ *
+ * Output: {"nodes_created":1,"nodes_deleted":0,"relationships_created":0,"relationships_deleted":0,
+ *          "labels_added":1,"labels_removed":0,"properties_set":1,"rows":1}
+ */
+public class UpdateStatistics {
+    private int nodesCreated, nodesDeleted, relationshipsCreated, relationshipsDeleted, labelsAdded, labelsRemoved, propertiesSet, rows;
+
+    public void add(ExecutionResult result, Deadline deadline) {
+        try (ResourceIterator<Map<String, Object>> it = result.iterator()) {
+            while (it.hasNext()) {
+                deadline.check();
+                it.next();
+                rows++;
+            }
+        }
+        addUpdates(result);
+    }
+
+    /**
+     * Adds the update statistics of a result that was already consumed, and the number of rows read from it.
+     */
+    public void add(ExecutionResult result, int rows) {
+        this.rows += rows;
+        addUpdates(result);
+    }
+
+    public void add(UpdateStatistics other) {
+        nodesCreated += other.nodesCreated;
+        nodesDeleted += other.nodesDeleted;
+        relationshipsCreated += other.relationshipsCreated;
+        relationshipsDeleted += other.relationshipsDeleted;
+        labelsAdded += other.labelsAdded;
+        labelsRemoved += other.labelsRemoved;
+        propertiesSet += other.propertiesSet;
+        rows += other.rows;
+    }
+
+    private void addUpdates(ExecutionResult result) {
+        QueryStatistics stats = result.getQueryStatistics();
+        if (stats == null || !stats.containsUpdates()) return;
+        nodesCreated += stats.getNodesCreated();
+        nodesDeleted += stats.getDeletedNodes();
+        relationshipsCreated += stats.getRelationshipsCreated();
+        relationshipsDeleted += stats.getDeletedRelationships();
+        labelsAdded += stats.getLabelsAdded();
+        labelsRemoved += stats.getLabelsRemoved();
+        propertiesSet += stats.getPropertiesSet();
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("nodes_created", nodesCreated);
+        result.put("nodes_deleted", nodesDeleted);
+        result.put("relationships_created", relationshipsCreated);
+        result.put("relationships_deleted", relationshipsDeleted);
+        result.put("labels_added", labelsAdded);
+        result.put("labels_removed", labelsRemoved);
+        result.put("properties_set", propertiesSet);
+        result.put("rows", rows);
+        return result;
+    }
+}
@@ -4,7 +4,6 @@ import org.codehaus.jackson.map.ObjectMapper;
 import org.neo4j.cypher.javacompat.ExecutionResult;
 import org.neo4j.server.rest.repr.BadInputException;
 
-import javax.ws.rs.core.MultivaluedMap;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.*;
@@ -17,28 +16,11 @@ public class Utils {
     public static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
     public static final Pattern IS_WRITE_QUERY = Pattern.compile("(create|set|remove|merge|delete|drop)", Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
 
-    static Map<String, Object> toParams(MultivaluedMap<String, String> queryParameters) {
-        Map<String, Object> result = new HashMap<>();
-        for (Map.Entry<String, List<String>> entry : queryParameters.entrySet()) {
-            List<String> value = entry.getValue();
-            if (value.isEmpty()) result.put(entry.getKey(), value);
-            if (value.size() == 1)
-                result.put(entry.getKey(), convertIfNeeded(value.get(0)));
-            else {
-                result.put(entry.getKey(), convertIfNeeded(value));
-            }
-        }
-        return result;
-    }
-
-    private static List<Object> convertIfNeeded(List<String> value) {
-        List<Object> result = new ArrayList<>(value.size());
-        for (String element : value) {
-            result.add(convertIfNeeded(element));
-        }
-        return result;
-    }
-
+    /**
+     * The conversion of CSV values: booleans and anything made of digits, signs and dots become booleans and numbers,
+     * leading zeros are dropped. Unlike {@link ParameterBinder#convert(String)}, which leaves such values strings.
+     * @throws NumberFormatException for values like 1.2.3
+     */
     public static Object convertIfNeeded(String value) {
         if (value.equalsIgnoreCase("true")) return true;
         if (value.equalsIgnoreCase("false")) return false;
@@ -69,10 +51,22 @@ public class Utils {
         return toJson(toObject(result));
     }
 
+    static String toJson(ExecutionResult result, Deadline deadline) throws IOException {
+        return toJson(toObject(result, deadline));
+    }
+
     public static Object toObject(ExecutionResult result) {
         return new CypherResultRenderer().render(result);
     }
 
+    public static Object toObject(ExecutionResult result, Deadline deadline) {
+        return new CypherResultRenderer().render(result, deadline);
+    }
+
+    public static Object toObject(ExecutionResult result, Deadline deadline, CypherResultRenderer renderer) {
+        return renderer.render(result, deadline);
+    }
+
     public static String toJson(Object value) throws IOException {
         if(value == null)
           return null;
@@ -0,0 +1,125 @@
+package org.neo4j.cypher_rs;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.impl.core.GraphProperties;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Plans endpoint queries ahead of their first call so that the plan cache is already filled,
+ * when an endpoint is stored or activated and for all stored endpoints when the extension starts.
+ * The state is kept per endpoint version.
+ */
+public class Warmup {
+    public enum State { PENDING, WARMING, WARM, FAILED }
+
+    private final GraphDatabaseService db;
+    private final PlanningExecutionEngine engine;
+    private final ConcurrentMap<String, Status> states = new ConcurrentHashMap<>();
+    private volatile boolean running;
+    private volatile boolean stopped;
+
+    public Warmup(GraphDatabaseService db, PlanningExecutionEngine engine) {
+        this.db = db;
+        this.engine = engine;
+    }
+
+    public static class Status {
+        private final State state;
+        private final long millis;
+        private final String error;
+
+        Status(State state, long millis, String error) {
+            this.state = state;
+            this.millis = millis;
+            this.error = error;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("state", state.name().toLowerCase());
+            if (state == State.WARM || state == State.FAILED) result.put("millis", millis);
+            if (error != null) result.put("error", error);
+            return result;
+        }
+    }
+
+    public Status warm(Endpoint endpoint) {
+        states.put(endpoint.getId(), new Status(State.WARMING, 0, null));
+        long start = System.currentTimeMillis();
+        Status status;
+        try (Transaction tx = db.beginTx()) {
+            engine.plan(endpoint.getQuery());
+            status = new Status(State.WARM, System.currentTimeMillis() - start, null);
+        } catch (Exception e) {
+            status = new Status(State.FAILED, System.currentTimeMillis() - start, e.getMessage());
+        }
+        states.put(endpoint.getId(), status);
+        return status;
+    }
+
+    public void warmAll(final GraphProperties props) {
+        final List<Endpoint> endpoints;
+        try (Transaction tx = db.beginTx()) {
+            endpoints = Endpoint.loadAll(props);
+            tx.success();
+        }
+        for (Endpoint endpoint : endpoints) {
+            states.put(endpoint.getId(), new Status(State.PENDING, 0, null));
+        }
+        running = true;
+        Thread thread = new Thread("cypher-rs-warmup") {
+            public void run() {
+                try {
+                    for (Endpoint endpoint : endpoints) {
+                        if (stopped) break;
+                        warm(endpoint);
+                    }
+                } finally {
+                    running = false;
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Ends a running warm-up after the current endpoint.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    public Status getStatus(Endpoint endpoint) {
+        return states.get(endpoint.getId());
+    }
+
+    public void forget(String key) {
+        String prefix = key + Endpoint.VERSION_SEPARATOR;
+        for (String id : states.keySet()) {
+            if (id.startsWith(prefix)) states.remove(id);
+        }
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> endpoints = new TreeMap<>();
+        for (Map.Entry<String, Status> entry : states.entrySet()) {
+            endpoints.put(entry.getKey(), entry.getValue().toMap());
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("warmup", running ? "running" : "done");
+        result.put("endpoints", endpoints);
+        return result;
+    }
+}
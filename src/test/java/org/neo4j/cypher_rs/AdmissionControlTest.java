@@ -0,0 +1,101 @@
+package org.neo4j.cypher_rs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+public class AdmissionControlTest {
+
+    private static final Endpoint UNLIMITED = new Endpoint("foo", "return 1", null);
+    private static final Endpoint LIMITED = new Endpoint("bar", "return 1", map("maxConcurrent", 1, "maxQueue", 0));
+
+    @Test
+    public void testRejectEndpointOverLimit() throws Exception {
+        AdmissionControl admission = new AdmissionControl(10, 0);
+        AdmissionControl.Ticket ticket = admission.admit(LIMITED);
+        try {
+            admission.admit(LIMITED);
+            fail("should have been rejected");
+        } catch (RejectedException e) {
+            assertEquals(429, e.getStatus());
+            assertEquals(AdmissionControl.RETRY_AFTER, e.getRetryAfter());
+        }
+        admission.admit(UNLIMITED).close();
+        ticket.close();
+        admission.admit(LIMITED).close();
+    }
+
+    @Test
+    public void testRejectOverGlobalLimit() throws Exception {
+        AdmissionControl admission = new AdmissionControl(1, 0);
+        AdmissionControl.Ticket ticket = admission.admit(UNLIMITED);
+        try {
+            admission.admit(LIMITED);
+            fail("should have been rejected");
+        } catch (RejectedException e) {
+            assertEquals(503, e.getStatus());
+        }
+        ticket.close();
+        ticket.close();
+        admission.admit(LIMITED).close();
+        admission.admit(LIMITED).close();
+    }
+
+    @Test
+    public void testWritesDontTakeReadPermits() throws Exception {
+        Endpoint write = new Endpoint("baz", "create (n) return n", null);
+        AdmissionControl admission = new AdmissionControl(1, 1, 0);
+        AdmissionControl.Ticket ticket = admission.admit(write);
+        try {
+            admission.admit(write);
+            fail("should have been rejected");
+        } catch (RejectedException e) {
+            assertEquals(503, e.getStatus());
+        }
+        admission.admit(UNLIMITED).close();
+        ticket.close();
+        admission.admit(write).close();
+    }
+
+    @Test
+    public void testConcurrentFirstCallsShareOneLimiter() throws Exception {
+        final AdmissionControl admission = new AdmissionControl(100, 0);
+        final Endpoint endpoint = new Endpoint("baz", "return 1", map("maxConcurrent", 2, "maxQueue", 0));
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<AdmissionControl.Ticket>> calls = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                calls.add(executor.submit(new Callable<AdmissionControl.Ticket>() {
+                    public AdmissionControl.Ticket call() throws Exception {
+                        start.await(10, TimeUnit.SECONDS);
+                        try {
+                            return admission.admit(endpoint);
+                        } catch (RejectedException e) {
+                            return null;
+                        }
+                    }
+                }));
+            }
+            start.countDown();
+            int admitted = 0;
+            for (Future<AdmissionControl.Ticket> call : calls) {
+                if (call.get() != null) admitted++;
+            }
+            assertEquals(2, admitted);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.neo4j.cypher_rs;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BatchSizerTest {
+
+    private static final long MS = 1000000;
+
+    @Test
+    public void testFixed() throws Exception {
+        BatchSizer sizer = BatchSizer.parse("500");
+        assertFalse(sizer.isAdaptive());
+        sizer.adjust(500, 5000 * MS, 0);
+        assertEquals(500, sizer.size());
+        assertEquals(BatchSizer.DEFAULT_SIZE, BatchSizer.parse(null).size());
+    }
+
+    @Test
+    public void testAdaptsToTarget() throws Exception {
+        BatchSizer sizer = new BatchSizer(true, 1000, 1000);
+        sizer.adjust(1000, 100 * MS, 0);
+        assertEquals(2000, sizer.size()); // at most doubled
+        sizer.adjust(2000, 800 * MS, 0);
+        assertEquals(2500, sizer.size());
+        sizer.adjust(2500, 10000 * MS, 0);
+        assertEquals(1250, sizer.size()); // at most halved
+        sizer.adjust(10, 10000 * MS, 0);
+        assertEquals(1250, sizer.size()); // partial batch
+        assertEquals(Arrays.asList(1000, 2000, 2500, 10), sizer.toMap().get("sizes"));
+        assertEquals(4, sizer.toMap().get("batches"));
+    }
+
+    @Test
+    public void testShrinksUnderGcPressure() throws Exception {
+        BatchSizer sizer = new BatchSizer(true, 1000, 1000);
+        sizer.adjust(1000, 500 * MS, 300);
+        assertEquals(500, sizer.size());
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        BatchSizer sizer = new BatchSizer(true, BatchSizer.MIN_SIZE, 1000);
+        sizer.adjust(BatchSizer.MIN_SIZE, 5000 * MS, 0);
+        assertEquals(BatchSizer.MIN_SIZE, sizer.size());
+        sizer = new BatchSizer(true, BatchSizer.MAX_SIZE, 1000);
+        sizer.adjust(BatchSizer.MAX_SIZE, MS, 0);
+        assertEquals(BatchSizer.MAX_SIZE, sizer.size());
+    }
+}
@@ -0,0 +1,83 @@
+package org.neo4j.cypher_rs;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testReusesReleasedBuffers() throws Exception {
+        BufferPool pool = new BufferPool(1024 * 1024, 64 * 1024);
+        ByteBuffer buffer = pool.acquire(3000);
+        assertTrue(buffer.isDirect());
+        assertEquals(BufferPool.MIN_SIZE, buffer.capacity());
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(100));
+        assertEquals(1L, pool.toMap().get("hits"));
+        assertEquals(8192, pool.acquire(5000).capacity());
+        assertEquals(4096L + 8192, pool.toMap().get("in_use"));
+    }
+
+    @Test
+    public void testEvictsFreeBuffersWhenFull() throws Exception {
+        BufferPool pool = new BufferPool(16384, 16384);
+        pool.release(pool.acquire(16384));
+        ByteBuffer small = pool.acquire(4096);
+        assertTrue(small.isDirect());
+        assertEquals(1L, pool.toMap().get("evicted"));
+        assertEquals(4096L, pool.toMap().get("allocated"));
+    }
+
+    @Test
+    public void testHeapBuffersBeyondCapacity() throws Exception {
+        BufferPool pool = new BufferPool(4096, 8192);
+        assertTrue(pool.acquire(100).isDirect());
+        assertFalse(pool.acquire(100).isDirect());
+        assertFalse(pool.acquire(10000).isDirect());
+        assertEquals(2L, pool.toMap().get("heap"));
+    }
+
+    @Test
+    public void testEntityIsReleasedAfterLastWrite() throws Exception {
+        BufferPool pool = new BufferPool(1024 * 1024, 64 * 1024);
+        BufferPool.Output out = pool.newOutput();
+        byte[] data = new byte[10000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+        out.write(data, 0, data.length);
+        BufferPool.Entity entity = out.toEntity();
+        out.discard();
+        assertEquals(10000, entity.size());
+        entity.retain(1);
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        entity.write(first);
+        assertEquals(16384L, pool.toMap().get("in_use"));
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        entity.write(second);
+        assertEquals(0L, pool.toMap().get("in_use"));
+        assertEquals(10000, second.size());
+        assertEquals(data[9999], second.toByteArray()[9999]);
+    }
+
+    @Test
+    public void testReclaimsCollectedEntities() throws Exception {
+        BufferPool pool = new BufferPool(1024 * 1024, 64 * 1024);
+        BufferPool.Output out = pool.newOutput();
+        out.write(1);
+        // retained for a write that never happens
+        out.toEntity().retain(1);
+        for (int i = 0; i < 100 && pool.toMap().get("reclaimed").equals(0L); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1L, pool.toMap().get("reclaimed"));
+        assertEquals(0L, pool.toMap().get("in_use"));
+    }
+}
@@ -0,0 +1,181 @@
+package org.neo4j.cypher_rs;
+
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+import org.junit.Test;
+
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class CoalescerTest {
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch joined = new CountDownLatch(1);
+
+    private final Callable<Response> slowCall = new Callable<Response>() {
+        public Response call() throws Exception {
+            calls.incrementAndGet();
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return Response.ok("result".getBytes()).build();
+        }
+    };
+
+    private Coalescer newCoalescer(long maxWait) {
+        return new Coalescer(maxWait) {
+            @Override
+            protected void joined(String key) {
+                CoalescerTest.this.joined.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testSharesRunningCall() throws Exception {
+        final Coalescer coalescer = newCoalescer(5000);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Response> leader = executor.submit(call(coalescer, "a"));
+            started.await(10, TimeUnit.SECONDS);
+            Future<Response> follower = executor.submit(call(coalescer, "a"));
+            joined.await(10, TimeUnit.SECONDS);
+            release.countDown();
+            assertEquals("result", new String((byte[]) leader.get().getEntity()));
+            assertEquals("result", new String((byte[]) follower.get().getEntity()));
+            assertEquals(1, calls.get());
+            assertEquals(1L, coalescer.toMap().get("shared"));
+
+            // nothing is running anymore, so the next call runs again
+            coalescer.call("a", slowCall);
+            assertEquals(2, calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testRunsOwnCallAfterTimeout() throws Exception {
+        final Coalescer coalescer = new Coalescer(50);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(call(coalescer, "a"));
+            started.await(10, TimeUnit.SECONDS);
+            Response response = coalescer.call("a", new Callable<Response>() {
+                public Response call() {
+                    return Response.ok("own".getBytes()).build();
+                }
+            });
+            assertEquals("own", new String((byte[]) response.getEntity()));
+            assertEquals(1L, coalescer.toMap().get("timed_out"));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWaitsAtMostOwnTimeout() throws Exception {
+        final Coalescer coalescer = new Coalescer(5000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(call(coalescer, "a"));
+            started.await(10, TimeUnit.SECONDS);
+            Response response = coalescer.call("a", 50, new Callable<Response>() {
+                public Response call() {
+                    return Response.ok("own".getBytes()).build();
+                }
+            });
+            assertEquals("own", new String((byte[]) response.getEntity()));
+            assertEquals(1L, coalescer.toMap().get("timed_out"));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedCallIsNotShared() throws Exception {
+        final Coalescer coalescer = newCoalescer(5000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Response> leader = executor.submit(new Callable<Response>() {
+                public Response call() throws Exception {
+                    return coalescer.call("a", new Callable<Response>() {
+                        public Response call() throws Exception {
+                            started.countDown();
+                            release.await(10, TimeUnit.SECONDS);
+                            return Response.status(504).entity("timed out").build();
+                        }
+                    });
+                }
+            });
+            started.await(10, TimeUnit.SECONDS);
+            new Thread() {
+                public void run() {
+                    try {
+                        joined.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        // released right away then
+                    }
+                    release.countDown();
+                }
+            }.start();
+            Response response = coalescer.call("a", new Callable<Response>() {
+                public Response call() {
+                    return Response.ok("own".getBytes()).build();
+                }
+            });
+            assertEquals(504, leader.get().getStatus());
+            assertEquals("own", new String((byte[]) response.getEntity()));
+            assertEquals(0L, coalescer.toMap().get("shared"));
+            assertEquals(1L, coalescer.toMap().get("retried"));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testKeyIgnoresOrder() throws Exception {
+        MultivaluedMap<String, String> first = new MultivaluedMapImpl();
+        first.add("name", "Andres");
+        first.add("age", "21");
+        first.add("timeout", "100");
+        MultivaluedMap<String, String> second = new MultivaluedMapImpl();
+        second.add("age", "21");
+        second.add("name", "Andres");
+        assertEquals(Coalescer.key("users", first, "timeout"), Coalescer.key("users", second, "timeout"));
+    }
+
+    @Test
+    public void testKeyIsUnambiguous() throws Exception {
+        MultivaluedMap<String, String> first = new MultivaluedMapImpl();
+        first.add("a", "1");
+        first.add("b", "2");
+        MultivaluedMap<String, String> second = new MultivaluedMapImpl();
+        second.add("a", "1], b=[2");
+        assertFalse(Coalescer.key("users", first).equals(Coalescer.key("users", second)));
+        MultivaluedMap<String, String> third = new MultivaluedMapImpl();
+        third.add("a", "1&b=2");
+        assertFalse(Coalescer.key("users", first).equals(Coalescer.key("users", third)));
+    }
+
+    private Callable<Response> call(final Coalescer coalescer, final String key) {
+        return new Callable<Response>() {
+            public Response call() throws Exception {
+                return coalescer.call(key, slowCall);
+            }
+        };
+    }
+}
@@ -1,5 +1,6 @@
 package org.neo4j.cypher_rs;
 
+import org.codehaus.jackson.map.ObjectMapper;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -9,6 +10,7 @@ import org.neo4j.test.TestGraphDatabaseFactory;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.neo4j.helpers.collection.MapUtil.map;
 
 /**
@@ -61,6 +63,34 @@ public class CypherResultRendererTest {
         assertEquals("[{},{\"since\":\"forever\"},{}]", Utils.toJson(renderer.convert(path.build())));
     }
 
+    @Test
+    public void testRenderStreamedAndCompactPath() throws Exception {
+        Node node = db.createNode();
+        Node node2 = db.createNode();
+        Relationship rel = createRel(node,node2);
+        Path path = new PathImpl.Builder(node).push(rel).build();
+        renderer.withPaths(CypherResultRenderer.Paths.STREAMED);
+        assertEquals("[{},{\"since\":\"forever\"},{}]", Utils.toJson(renderer.convert(path)));
+        renderer.withPaths(CypherResultRenderer.Paths.COMPACT);
+        assertEquals("{\"nodes\":[" + node.getId() + "," + node2.getId() + "],\"relationships\":[" + rel.getId() + "]}",
+                Utils.toJson(renderer.convert(path)));
+    }
+
+    @Test
+    public void testRenderPathsWithTypes() throws Exception {
+        Node node = db.createNode();
+        Relationship rel = createRel(node);
+        Path path = new PathImpl.Builder(node).push(rel).build();
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.enableDefaultTyping(ObjectMapper.DefaultTyping.NON_FINAL);
+        renderer.withPaths(CypherResultRenderer.Paths.STREAMED);
+        String streamed = mapper.writeValueAsString(renderer.convert(path));
+        assertTrue(streamed, streamed.startsWith("[\"" + CypherResultRenderer.StreamedPath.class.getName() + "\",[["));
+        renderer.withPaths(CypherResultRenderer.Paths.COMPACT);
+        assertEquals("[\"" + CypherResultRenderer.CompactPath.class.getName() + "\",{\"nodes\":[" + node.getId() + "," + node.getId()
+                + "],\"relationships\":[" + rel.getId() + "]}]", mapper.writeValueAsString(renderer.convert(path)));
+    }
+
     private Relationship createRel(Node...nodes) {
         Node node1 = nodes[(nodes.length < 2 ? 0 : 1)];
         Relationship rel = nodes[0].createRelationshipTo(node1, DynamicRelationshipType.withName("KNOWS"));
@@ -82,6 +112,25 @@ public class CypherResultRendererTest {
         assertEquals("[{\"age\":42,\"children\":[\"Kalle\",\"Oskar\"],\"male\":true,\"name\":\"Peter\"}]", Utils.toJson(renderer.convert(asList(node))));
     }
 
+    @Test
+    public void testRenderProjection() throws Exception {
+        Node node = createPeter();
+        assertEquals("{\"age\":42,\"name\":\"Peter\"}", Utils.toJson(renderer.convert(node, FieldFilter.parse(asList("name,age")))));
+        renderer = new CypherResultRenderer(FieldFilter.parse(asList("name", "friend.name")));
+        assertEquals(map("name", "Paul", "friend", map("name", "Peter")), renderer.convertRow(map("name", "Paul", "friend", node, "age", 12)));
+    }
+
+    @Test
+    public void testRenderRichDeduplicatesEntities() throws Exception {
+        Node node = createPeter();
+        node.addLabel(DynamicLabel.label("Person"));
+        Relationship rel = createRel(node);
+        RichResultRenderer rich = new RichResultRenderer(FieldFilter.ALL);
+        Object path = rich.convert(new PathImpl.Builder(node).push(rel).build());
+        assertEquals(asList(map("@node", node.getId()), map("@rel", rel.getId()), map("@node", node.getId())), path);
+        assertEquals("{\"@node\":" + node.getId() + "}", Utils.toJson(rich.convert(node)));
+    }
+
     private Node createPeter() {
         Node node = db.createNode();
         node.setProperty("name", "Peter");
@@ -0,0 +1,91 @@
+package org.neo4j.cypher_rs;
+
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.WebResource;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+
+import javax.ws.rs.core.MediaType;
+
+import static org.junit.Assert.assertEquals;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
+
+public class CypherRsBatchTest extends RestTestBase {
+
+    public static final String QUERY = "start n=node({id}) return n";
+    public static final String WRITE_QUERY = "create (n:Node {name:{name}}) return n";
+
+    private WebResource path;
+    private WebResource batchPath;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        path = rootResource.path("test");
+        batchPath = path.path("_batch");
+    }
+
+    private Node createNode(String name, String value) {
+        try (Transaction tx = beginTx()) {
+            Node node = getGraphDatabase().createNode();
+            node.setProperty(name, value);
+            tx.success();
+            return node;
+        }
+    }
+
+    private ClientResponse post(String json) {
+        return batchPath.entity(json, MediaType.APPLICATION_JSON_TYPE).post(ClientResponse.class);
+    }
+
+    @Test
+    public void testReadBatch() throws Exception {
+        Node foo = createNode("name", "foo");
+        Node bar = createNode("name", "bar");
+        path.path("read").put(ClientResponse.class, QUERY);
+        ClientResponse response = post("[{\"endpoint\":\"read\",\"params\":{\"id\":" + foo.getId() + "}}," +
+                "{\"endpoint\":\"read\",\"params\":{\"id\":" + bar.getId() + "}}]");
+        String result = response.getEntity(String.class);
+        assertEquals(result, 200, response.getStatus());
+        assertEquals("{\"results\":[{\"endpoint\":\"read\",\"status\":200,\"result\":[{\"name\":\"foo\"}]}," +
+                "{\"endpoint\":\"read\",\"status\":200,\"result\":[{\"name\":\"bar\"}]}],\"committed\":true}", result);
+    }
+
+    @Test
+    public void testWriteBatchRollsBackOnError() throws Exception {
+        path.path("write").put(ClientResponse.class, WRITE_QUERY);
+        path.path("read").put(ClientResponse.class, QUERY);
+        ClientResponse response = post("[{\"endpoint\":\"write\",\"params\":{\"name\":\"foo\"}}," +
+                "{\"endpoint\":\"read\",\"params\":{\"id\":-1}}]");
+        String result = response.getEntity(String.class);
+        assertEquals(result, 200, response.getStatus());
+        assertEquals(true, result.contains("\"status\":500"));
+        assertEquals(true, result.endsWith("\"committed\":false}"));
+        try (Transaction tx = beginTx()) {
+            assertEquals(0, count(getGraphDatabase().getAllNodes()));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testWriteBatch() throws Exception {
+        path.path("write").put(ClientResponse.class, WRITE_QUERY);
+        ClientResponse response = post("[{\"endpoint\":\"write\",\"params\":{\"name\":\"foo\"}}," +
+                "{\"endpoint\":\"write\",\"params\":{\"name\":\"bar\"}}]");
+        String result = response.getEntity(String.class);
+        assertEquals(result, 200, response.getStatus());
+        assertEquals(true, result.endsWith("\"committed\":true}"));
+        try (Transaction tx = beginTx()) {
+            assertEquals(2, count(getGraphDatabase().getAllNodes()));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testUnknownEndpoint() throws Exception {
+        ClientResponse response = post("[{\"endpoint\":\"unknown\"}]");
+        assertEquals(404, response.getStatus());
+    }
+}
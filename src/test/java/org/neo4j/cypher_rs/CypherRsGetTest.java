@@ -4,12 +4,19 @@ import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import org.junit.Before;
 import org.junit.Test;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
 
 import javax.ws.rs.core.Response;
+import java.util.List;
+import java.util.Map;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Michael Hunger @since 09.10.13
@@ -104,6 +111,175 @@ public class CypherRsGetTest extends RestTestBase {
         assertEquals(result, 200, response.getStatus());
         assertEquals("[{\"l\":6,\"name\":\"Andres\"},{\"l\":5,\"name\":\"Peter\"}]", result);
     }
+    @Test
+    public void testBudgetReturnsPartialResult() throws Exception {
+        cypherRsPath.queryParam("budget", "1").queryParam("degrade", "partial").put(ClientResponse.class, "unwind range(1,{count}) as x return x");
+        ClientResponse response = cypherRsPath.queryParam("count", "1000000").get(ClientResponse.class);
+        String result = response.getEntity(String.class);
+        assertEquals(result, 200, response.getStatus());
+        assertEquals(CypherResultRenderer.TRUNCATED_BUDGET, response.getHeaders().getFirst(CypherRsService.TRUNCATED_HEADER));
+        assertTrue(Utils.readJson("{\"rows\":" + result + "}").get("rows") instanceof List);
+    }
+
+    @Test
+    public void testBudgetFails() throws Exception {
+        cypherRsPath.queryParam("budget", "1").put(ClientResponse.class, "unwind range(1,{count}) as x return x");
+        ClientResponse response = cypherRsPath.queryParam("count", "1000000").get(ClientResponse.class);
+        String result = response.getEntity(String.class);
+        assertEquals(result, 504, response.getStatus());
+        assertTrue(result, result.contains("latency budget of 1 ms"));
+        assertEquals(400, cypherRsPath.queryParam("degrade", "later").put(ClientResponse.class, "return 1").getStatus());
+    }
+
+    @Test
+    public void testBudgetServesCachedResult() throws Exception {
+        WebResource path = rootResource.path("test").path("degrade-cached");
+        path.queryParam("budget", "10000").queryParam("degrade", "cached").put(ClientResponse.class, "match (n:Big) return n.id as id");
+        createBigNodes(0, 3);
+        assertEquals("[0,1,2]", path.get(String.class));
+
+        createBigNodes(3, 50000);
+        // a timeout degrades as well, it's not part of the cache key
+        ClientResponse response = path.queryParam("timeout", "1").get(ClientResponse.class);
+        assertEquals(200, response.getStatus());
+        assertEquals("cached", response.getHeaders().getFirst(CypherRsService.DEGRADED_HEADER));
+        assertEquals("[0,1,2]", response.getEntity(String.class));
+    }
+
+    private void createBigNodes(int from, int to) {
+        try (Transaction tx = beginTx()) {
+            for (int i = from; i < to; i++) {
+                getGraphDatabase().createNode(DynamicLabel.label("Big")).setProperty("id", i);
+            }
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testQueryEndpointTimeout() throws Exception {
+        cypherRsPath.put(ClientResponse.class, "unwind range(1,{count}) as x return x");
+        ClientResponse response = cypherRsPath
+                .queryParam("count", "1000000")
+                .queryParam("timeout", "1")
+                .get(ClientResponse.class);
+        assertEquals(504, response.getStatus());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testReadMetrics() throws Exception {
+        cypherRsPath.put(ClientResponse.class, "return 1 as v");
+        Map<String, Object> before = Utils.readJson(rootResource.path("test").path("_metrics").get(String.class));
+        long reads = ((Number) ((Map<String, Object>) before.get("reads")).get("calls")).longValue();
+        assertEquals("[1]", cypherRsPath.get(String.class));
+        Map<String, Object> after = Utils.readJson(rootResource.path("test").path("_metrics").get(String.class));
+        assertEquals(reads + 1, ((Number) ((Map<String, Object>) after.get("reads")).get("calls")).longValue());
+        assertEquals(before.get("writes"), after.get("writes"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testHeadReleasesPooledBody() throws Exception {
+        cypherRsPath.put(ClientResponse.class, "return 1 as v");
+        Map<String, Object> before = Utils.readJson(rootResource.path("test").path("_metrics").get(String.class));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(200, cypherRsPath.head().getStatus());
+        }
+        Map<String, Object> after = Utils.readJson(rootResource.path("test").path("_metrics").get(String.class));
+        assertEquals(((Map<String, Object>) before.get("buffer_pool")).get("in_use"), ((Map<String, Object>) after.get("buffer_pool")).get("in_use"));
+    }
+
+    @Test
+    public void testQueryEndpointFields() throws Exception {
+        cypherRsPath.put(ClientResponse.class, "return {name:'Peter', address:{city:'Malmo', zip:'21121'}} as user");
+        String result = cypherRsPath.queryParam("fields", "address.city").get(String.class);
+        assertEquals("[{\"address\":{\"city\":\"Malmo\"}}]", result);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testQueryEndpointRichRendering() throws Exception {
+        Node andres = createNode("name", "Andres");
+        Node peter = createNode("name", "Peter");
+        try (Transaction tx = beginTx()) {
+            andres.addLabel(DynamicLabel.label("Person"));
+            peter.addLabel(DynamicLabel.label("Person"));
+            andres.createRelationshipTo(peter, DynamicRelationshipType.withName("KNOWS"));
+            tx.success();
+        }
+        cypherRsPath.put(ClientResponse.class, "match (a:Person)-[r:KNOWS]->(b) return a, r, b, a as again");
+        String result = cypherRsPath.queryParam("render", "rich").get(String.class);
+        Map<String, Object> data = Utils.readJson(result);
+        Map<String, Map<String, Object>> nodes = (Map<String, Map<String, Object>>) data.get("nodes");
+        Map<String, Map<String, Object>> rels = (Map<String, Map<String, Object>>) data.get("relationships");
+        assertEquals(2, nodes.size());
+        assertEquals(1, rels.size());
+        Map<String, Object> row = ((List<Map<String, Object>>) data.get("rows")).get(0);
+        assertEquals(row.get("a"), row.get("again"));
+        Map<String, Object> a = nodes.get(String.valueOf(((Map) row.get("a")).get("@node")));
+        assertEquals(asList("Person"), a.get("labels"));
+        assertEquals("Andres", ((Map) a.get("properties")).get("name"));
+        assertEquals("KNOWS", rels.values().iterator().next().get("type"));
+        assertEquals(400, cypherRsPath.queryParam("render", "fancy").get(ClientResponse.class).getStatus());
+    }
+
+    @Test
+    public void testQueryEndpointCompactPaths() throws Exception {
+        Node andres = createNode("name", "Andres");
+        Node peter = createNode("name", "Peter");
+        long rel;
+        try (Transaction tx = beginTx()) {
+            rel = andres.createRelationshipTo(peter, DynamicRelationshipType.withName("KNOWS")).getId();
+            tx.success();
+        }
+        cypherRsPath.put(ClientResponse.class, "match p=(n)-[:KNOWS]->() where n.name = {name} return p");
+        assertEquals("[[{\"name\":\"Andres\"},{},{\"name\":\"Peter\"}]]", cypherRsPath.queryParam("name", "Andres").get(String.class));
+        String result = cypherRsPath.queryParam("name", "Andres").queryParam("paths", "compact").get(String.class);
+        assertEquals("[{\"nodes\":[" + andres.getId() + "," + peter.getId() + "],\"relationships\":[" + rel + "]}]", result);
+    }
+
+    @Test
+    public void testQueryEndpointLimits() throws Exception {
+        String query = "unwind range(1,{count}) as x return x";
+        cypherRsPath.queryParam("maxRows", "3").put(ClientResponse.class, query);
+        ClientResponse response = cypherRsPath.queryParam("count", "1000").get(ClientResponse.class);
+        assertEquals("[1,2,3]", response.getEntity(String.class));
+        assertEquals("rows", response.getHeaders().getFirst(CypherRsService.TRUNCATED_HEADER));
+
+        response = cypherRsPath.queryParam("count", "3").get(ClientResponse.class);
+        assertEquals("[1,2,3]", response.getEntity(String.class));
+        assertEquals(null, response.getHeaders().getFirst(CypherRsService.TRUNCATED_HEADER));
+
+        cypherRsPath.queryParam("maxBytes", "10").put(ClientResponse.class, query);
+        response = cypherRsPath.queryParam("count", "1000").get(ClientResponse.class);
+        assertEquals("[1,2,3,4,5]", response.getEntity(String.class));
+        assertEquals("bytes", response.getHeaders().getFirst(CypherRsService.TRUNCATED_HEADER));
+
+        String[] lines = cypherRsPath.queryParam("count", "1000").accept(ResultStream.NDJSON).get(String.class).split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[1], lines[1].contains("\"truncated\":\"bytes\""));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testQueryEndpointParameterTypes() throws Exception {
+        cypherRsPath.queryParam("params", "code:string").put(ClientResponse.class, "return {zip} as zip, {code} as code, {n} + 1 as n");
+        String result = cypherRsPath.queryParam("zip", "01234").queryParam("code", "42").queryParam("n:long", "1").get(String.class);
+        Map<String, Object> row = (Map<String, Object>) Utils.OBJECT_MAPPER.readValue(result, List.class).get(0);
+        assertEquals("01234", row.get("zip"));
+        assertEquals("42", row.get("code"));
+        assertEquals(2, row.get("n"));
+        assertEquals(400, cypherRsPath.queryParam("n:long", "x").get(ClientResponse.class).getStatus());
+        assertEquals(400, cypherRsPath.queryParam("params", "code:zip").put(ClientResponse.class, "return 1").getStatus());
+    }
+
+    @Test
+    public void testQueryParametersNamedLikeControls() throws Exception {
+        cypherRsPath.put(ClientResponse.class, "return {timeout} as timeout, {fields} as fields");
+        String result = cypherRsPath.queryParam("timeout", "1").queryParam("fields", "x").get(String.class);
+        assertEquals("[{\"timeout\":1,\"fields\":\"x\"}]", result);
+    }
+
     @Test
     public void testGetQueryWriteQueryShouldReturnInvalidMethod() throws Exception {
         cypherRsPath.put(ClientResponse.class, WRITE_QUERY);
@@ -143,6 +319,78 @@ public class CypherRsGetTest extends RestTestBase {
         assertEquals("{\"foo\":\"" + QUERY + "\",\"foo2\":\"" + MULTI_COLUMN_QUERY + "\"}", result);
     }
     
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCatalogStatistics() throws Exception {
+        WebResource path = rootResource.path("test");
+        path.path("catalog").queryParam("params", "n:long").put(ClientResponse.class, "unwind range(1,{n}) as x return x");
+        path.path("catalog").queryParam("n", "3").get(String.class);
+        path.path("catalog").queryParam("n", "5").get(String.class);
+        path.path("catalog-write").put(ClientResponse.class, WRITE_QUERY);
+
+        Map<String, Object> catalog = Utils.readJson(path.path("_catalog").get(String.class));
+        assertEquals(asList("catalog", "catalog-write"), asList(catalog.keySet().toArray()));
+        Map<String, Object> read = (Map<String, Object>) catalog.get("catalog");
+        assertEquals("read", read.get("mode"));
+        assertEquals("{n=long}", read.get("params").toString());
+        assertEquals(2, ((Number) read.get("calls")).intValue());
+        assertEquals(4.0, ((Number) read.get("avg_rows")).doubleValue(), 0.001);
+        assertTrue(((Number) read.get("p99_ms")).doubleValue() <= ((Number) read.get("max_ms")).doubleValue());
+        assertNull(read.get("last_error"));
+        Map<String, Object> write = (Map<String, Object>) catalog.get("catalog-write");
+        assertEquals("write", write.get("mode"));
+        assertEquals(0, ((Number) write.get("calls")).intValue());
+    }
+    
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStreamNdjson() throws Exception {
+        cypherRsPath.queryParam("maxRows", "3").put(ClientResponse.class, "unwind range(1,{n}) as x return x");
+        ClientResponse response = cypherRsPath.queryParam("n", "5").accept(ResultStream.NDJSON).get(ClientResponse.class);
+        String result = response.getEntity(String.class);
+        assertEquals(result, 200, response.getStatus());
+        assertEquals(ResultStream.NDJSON, response.getType().toString());
+        String[] lines = result.split("\n");
+        assertEquals(4, lines.length);
+        assertEquals("{\"row\":1}", lines[0]);
+        assertEquals("{\"row\":3}", lines[2]);
+        Map<String, Object> summary = (Map<String, Object>) Utils.readJson(lines[3]).get("summary");
+        assertEquals(3, summary.get("rows"));
+        assertEquals("rows", summary.get("truncated"));
+    }
+
+    @Test
+    public void testStreamHeadTakesNoPermit() throws Exception {
+        cypherRsPath.queryParam("maxConcurrent", "1").queryParam("maxQueue", "0").put(ClientResponse.class, "unwind range(1,{n}) as x return x");
+        for (int i = 0; i < 2; i++) {
+            assertEquals(200, cypherRsPath.queryParam("n", "2").accept(ResultStream.NDJSON).head().getStatus());
+        }
+        String result = cypherRsPath.queryParam("n", "2").accept(ResultStream.NDJSON).get(String.class);
+        assertTrue(result, result.startsWith("{\"row\":1}\n{\"row\":2}\n"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStreamHeadIsRecorded() throws Exception {
+        cypherRsPath.put(ClientResponse.class, "unwind range(1,{n}) as x return x");
+        Map<String, Object> before = Utils.readJson(rootResource.path("test").path("_metrics").get(String.class));
+        long reads = ((Number) ((Map<String, Object>) before.get("reads")).get("calls")).longValue();
+        assertEquals(200, cypherRsPath.queryParam("n", "2").accept(ResultStream.NDJSON).head().getStatus());
+        Map<String, Object> after = Utils.readJson(rootResource.path("test").path("_metrics").get(String.class));
+        assertEquals(reads + 1, ((Number) ((Map<String, Object>) after.get("reads")).get("calls")).longValue());
+    }
+
+    @Test
+    public void testStreamEvents() throws Exception {
+        cypherRsPath.put(ClientResponse.class, "unwind range(1,{n}) as x return x");
+        ClientResponse response = cypherRsPath.queryParam("n", "2").accept(ResultStream.EVENT_STREAM).get(ClientResponse.class);
+        String result = response.getEntity(String.class);
+        assertEquals(result, 200, response.getStatus());
+        assertEquals(true, result.startsWith("event: row\ndata: {\"row\":1}\n\nevent: row\ndata: {\"row\":2}\n\nevent: summary\ndata: {\"summary\":{\"rows\":2,"));
+        assertEquals(400, cypherRsPath.queryParam("n", "2").queryParam("render", "rich").accept(ResultStream.EVENT_STREAM).get(ClientResponse.class).getStatus());
+        assertEquals(404, rootResource.path("test").path("unknown").accept(ResultStream.EVENT_STREAM).get(ClientResponse.class).getStatus());
+    }
+
     @Test
     public void testEndpointQuery() throws Exception {
         cypherRsPath.put(ClientResponse.class, QUERY);
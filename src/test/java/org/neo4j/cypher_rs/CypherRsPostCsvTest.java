@@ -1,5 +1,6 @@
 package org.neo4j.cypher_rs;
 
+import au.com.bytecode.opencsv.CSVReader;
 import au.com.bytecode.opencsv.CSVWriter;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
@@ -9,10 +10,13 @@ import org.junit.Test;
 
 import javax.ws.rs.core.MediaType;
 import java.io.IOException;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -87,6 +91,84 @@ public class CypherRsPostCsvTest extends RestTestBase {
         assertEquals(0,data.get("relationships_created"));
     }
 
+    @Test
+    public void testStopsAtRowWithWrongColumnCount() throws Exception {
+        cypherRsPath.put(ClientResponse.class, WRITE_QUERY);
+        ClientResponse response = postData("name\nfoo\nbar,baz\nqux\n", cypherRsPath.queryParam("batch", "1"));
+        String result = response.getEntity(String.class);
+        assertEquals(result, 400, response.getStatus());
+        assertEquals("Line 3: Expected 1 columns but found 2, 1 lines committed", result);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAdaptiveBatches() throws Exception {
+        cypherRsPath.put(ClientResponse.class, WRITE_QUERY);
+        ClientResponse response = post(1, "name", "foo", "bar", "foobar");
+        ClientResponse auto = postData(createCsvData(1, ',', new String[]{"name", "foo", "bar"}), cypherRsPath.queryParam("batch", "auto"));
+        String result = auto.getEntity(String.class);
+        assertEquals(result, 200, auto.getStatus());
+        Map<String,Object> data = Utils.readJson(result);
+        assertEquals(2,data.get("nodes_created"));
+        Map<String,Object> batch = (Map<String,Object>) data.get("batch");
+        assertEquals("auto", batch.get("mode"));
+        assertEquals(asList(2), batch.get("sizes"));
+        assertEquals(false, Utils.readJson(response.getEntity(String.class)).containsKey("batch"));
+        assertEquals(400, postData("name\nfoo\n", cypherRsPath.queryParam("batch", "0")).getStatus());
+    }
+
+    @Test
+    public void testSortedGroups() throws Exception {
+        cypherRsPath.put(ClientResponse.class, "merge (a:Node {name:{from}}) foreach (row in {rows} | create (a)-[:KNOWS]->(:Node {name:row.to})) return a");
+        ClientResponse response = postData("from,to\nb,1\na,2\nb,3\n", cypherRsPath.queryParam("sort", "from").queryParam("group", "true"));
+        String result = response.getEntity(String.class);
+        assertEquals(result, 200, response.getStatus());
+        Map<String,Object> data = Utils.readJson(result);
+        assertEquals(5,data.get("nodes_created"));
+        assertEquals(3,data.get("relationships_created"));
+        assertEquals(2,data.get("rows"));
+        assertEquals(400, postData("from,to\nb,1\n", cypherRsPath.queryParam("sort", "id")).getStatus());
+        assertEquals(400, postData("from,to\nb,1\n", cypherRsPath.queryParam("group", "true")).getStatus());
+    }
+
+    @Test
+    public void testDeadLetter() throws Exception {
+        cypherRsPath.put(ClientResponse.class, "create (n:Node {name:{name}}) return 10 / {d}");
+        ClientResponse response = postData("name,d\na,1\nb,0\nc,2\nd,5\ne\nf,0\n", cypherRsPath.queryParam("errors", "deadletter"));
+        String result = response.getEntity(String.class);
+        assertEquals(result, 200, response.getStatus());
+        Map<String,Object> data = Utils.readJson(result);
+        assertEquals(3,data.get("nodes_created"));
+        assertEquals(3,data.get("rows"));
+        assertEquals(1,data.get("skipped"));
+        assertEquals(2,data.get("failed"));
+
+        ClientResponse deadLetter = client.resource((String) data.get("deadletter")).get(ClientResponse.class);
+        assertEquals(200, deadLetter.getStatus());
+        List<String[]> rows = new CSVReader(new StringReader(deadLetter.getEntity(String.class))).readAll();
+        assertEquals(4, rows.size());
+        assertEquals(asList("_line", "_error", "name", "d"), asList(rows.get(0)));
+        // skipped lines are written when they are read, failed ones when their batch ran
+        assertEquals(asList("6", "Expected 2 columns but found 1", "e"), asList(rows.get(1)));
+        assertEquals(asList("3", "b", "0"), asList(rows.get(2)[0], rows.get(2)[2], rows.get(2)[3]));
+        assertEquals("7", rows.get(3)[0]);
+
+        assertEquals(200, client.resource((String) data.get("deadletter")).delete(ClientResponse.class).getStatus());
+        assertEquals(404, client.resource((String) data.get("deadletter")).get(ClientResponse.class).getStatus());
+    }
+
+    @Test
+    public void testDeadLetterMaxErrors() throws Exception {
+        cypherRsPath.put(ClientResponse.class, "create (n:Node {name:{name}}) return 10 / {d}");
+        ClientResponse response = postData("name,d\na,0\nb,0\nc,1\n", cypherRsPath.queryParam("errors", "deadletter").queryParam("maxErrors", "1"));
+        String result = response.getEntity(String.class);
+        assertEquals(result, 400, response.getStatus());
+        Map<String,Object> data = Utils.readJson(result);
+        assertEquals(2,data.get("failed"));
+        assertEquals(true, ((String) data.get("aborted")).startsWith("More than 1 errors"));
+        assertEquals(400, postData("name\na\n", cypherRsPath.queryParam("errors", "ignore")).getStatus());
+    }
+
     private ClientResponse post(int width, String...data) throws IOException {
         String csvData = createCsvData(width, ',', data);
         return postData(csvData, cypherRsPath);
@@ -0,0 +1,82 @@
+package org.neo4j.cypher_rs;
+
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.WebResource;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CypherRsPostNdjsonTest extends RestTestBase {
+
+    public static final String KEY = "foo";
+    public static final String WRITE_QUERY = "create (n:Node {name:{name}}) return n";
+
+    private WebResource cypherRsPath;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        cypherRsPath = rootResource.path("test").path(KEY);
+    }
+
+    @Test
+    public void testQueryNonExistingEndpoint() throws Exception {
+        assertEquals(404, post(cypherRsPath, "{\"name\":\"foo\"}\n").getStatus());
+    }
+
+    @Test
+    public void testPostLines() throws Exception {
+        cypherRsPath.put(ClientResponse.class, WRITE_QUERY);
+        ClientResponse response = post(cypherRsPath.queryParam("batch", "2"), "{\"name\":\"foo\"}\n\n{\"name\":\"bar\"}\n{\"name\":\"foobar\"}");
+        String result = response.getEntity(String.class);
+        assertEquals(result, 200, response.getStatus());
+        Map<String, Object> data = Utils.readJson(result);
+        assertEquals(3, data.get("nodes_created"));
+        assertEquals(3, data.get("rows"));
+        assertEquals(false, data.containsKey("errors"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSkipsInvalidLines() throws Exception {
+        cypherRsPath.put(ClientResponse.class, WRITE_QUERY);
+        ClientResponse response = post(cypherRsPath.queryParam("errors", "deadletter"), "{\"name\":\"foo\"}\n{\"name\":\n[1,2]\n{\"name\":\"bar\"}\n");
+        String result = response.getEntity(String.class);
+        assertEquals(result, 200, response.getStatus());
+        Map<String, Object> data = Utils.readJson(result);
+        assertEquals(2, data.get("nodes_created"));
+        assertEquals(2, data.get("skipped"));
+        List<Map<String, Object>> errors = (List<Map<String, Object>>) data.get("errors");
+        assertEquals(2, errors.get(0).get("line"));
+        assertEquals(3, errors.get(1).get("line"));
+        assertEquals("Expected a json map", errors.get(1).get("error"));
+    }
+
+    @Test
+    public void testStopsAtInvalidLine() throws Exception {
+        cypherRsPath.put(ClientResponse.class, WRITE_QUERY);
+        ClientResponse response = post(cypherRsPath, "{\"name\":\"foo\"}\n[1,2]\n{\"name\":\"bar\"}\n");
+        String result = response.getEntity(String.class);
+        assertEquals(result, 400, response.getStatus());
+        assertEquals("Line 2: Expected a json map, 0 lines committed", result);
+    }
+
+    @Test
+    public void testFailingLine() throws Exception {
+        cypherRsPath.put(ClientResponse.class, "create (n:Node {name:{name}}) return n.name + {suffix}");
+        ClientResponse response = post(cypherRsPath.queryParam("batch", "1"), "{\"name\":\"foo\",\"suffix\":\"x\"}\n{\"name\":\"bar\"}\n");
+        String result = response.getEntity(String.class);
+        assertEquals(result, 500, response.getStatus());
+        assertTrue(result, result.startsWith("Line 2: "));
+        assertTrue(result, result.endsWith("1 lines committed"));
+    }
+
+    private ClientResponse post(WebResource resource, String body) {
+        return resource.entity(body, ResultStream.NDJSON).post(ClientResponse.class);
+    }
+}
@@ -6,6 +6,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.tooling.GlobalGraphOperations;
 
 import javax.ws.rs.core.MediaType;
 
@@ -158,6 +160,66 @@ public class CypherRsPostTest extends RestTestBase {
         assertEquals("[{\"name\":\"foobar\"}]", result);
     }
 
+    @Test
+    public void testStatsOnly() throws Exception {
+        cypherRsPath.put(ClientResponse.class, WRITE_QUERY);
+        String payload = Utils.toJson(asList(map("name", "foo"), map("name", "bar")));
+        ClientResponse response = cypherRsPath.queryParam("stats", "only").entity(payload, MediaType.APPLICATION_JSON_TYPE).post(ClientResponse.class);
+        String result = response.getEntity(String.class);
+        assertEquals(result, 200, response.getStatus());
+        Map<String, Object> data = Utils.readJson(result);
+        assertEquals(2, data.get("nodes_created"));
+        assertEquals(2, data.get("labels_added"));
+        assertEquals(2, data.get("rows"));
+        assertEquals(400, cypherRsPath.queryParam("stats", "all").entity(payload, MediaType.APPLICATION_JSON_TYPE).post(ClientResponse.class).getStatus());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStreamNdjson() throws Exception {
+        cypherRsPath.put(ClientResponse.class, WRITE_QUERY);
+        String payload = Utils.toJson(asList(map("name", "foo"), map("name", "bar")));
+        ClientResponse response = cypherRsPath.accept(ResultStream.NDJSON).entity(payload, MediaType.APPLICATION_JSON_TYPE).post(ClientResponse.class);
+        String result = response.getEntity(String.class);
+        assertEquals(result, 200, response.getStatus());
+        String[] lines = result.split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("{\"call\":0,\"row\":{\"name\":\"foo\"}}", lines[0]);
+        assertEquals("{\"call\":1,\"row\":{\"name\":\"bar\"}}", lines[1]);
+        Map<String, Object> summary = (Map<String, Object>) Utils.readJson(lines[2]).get("summary");
+        assertEquals(2, summary.get("nodes_created"));
+        assertEquals(2, summary.get("rows"));
+        assertEquals(true, summary.get("committed"));
+        try (Transaction tx = beginTx()) {
+            assertEquals(2, IteratorUtil.count(GlobalGraphOperations.at(getGraphDatabase()).getAllNodes()));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testQueryEndpointByteLimit() throws Exception {
+        cypherRsPath.queryParam("maxBytes", "10").put(ClientResponse.class, "unwind range(1,{count}) as x return x");
+        ClientResponse response = cypherRsPath.entity("[{\"count\":1000},{\"count\":3}]", MediaType.APPLICATION_JSON_TYPE).post(ClientResponse.class);
+        assertEquals("[[1,2,3,4,5],[]]", response.getEntity(String.class));
+        assertEquals("bytes", response.getHeaders().getFirst(CypherRsService.TRUNCATED_HEADER));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRichResultsShareSideTables() throws Exception {
+        Node andres = createNode("name", "Andres");
+        Node peter = createNode("name", "Peter");
+        cypherRsPath.put(ClientResponse.class, "match n where id(n) in {ids} return n");
+        String payload = Utils.toJson(asList(map("ids", asList(andres.getId())), map("ids", asList(andres.getId(), peter.getId()))));
+        ClientResponse response = cypherRsPath.queryParam("render", "rich").entity(payload, MediaType.APPLICATION_JSON_TYPE).post(ClientResponse.class);
+        String result = response.getEntity(String.class);
+        assertEquals(result, 200, response.getStatus());
+        List<Map<String, Object>> results = (List<Map<String, Object>>) Utils.readJson("{\"results\":" + result + "}").get("results");
+        assertEquals(asList(String.valueOf(andres.getId())), new ArrayList<>(((Map<String, Object>) results.get(0).get("nodes")).keySet()));
+        assertEquals(asList(String.valueOf(peter.getId())), new ArrayList<>(((Map<String, Object>) results.get(1).get("nodes")).keySet()));
+        assertEquals(2, ((List) results.get(1).get("rows")).size());
+    }
+
     private ClientResponse post(Map<String, Object> payload) throws IOException {
         return cypherRsPath.entity(Utils.toJson(payload), MediaType.APPLICATION_JSON_TYPE).post(ClientResponse.class);
     }
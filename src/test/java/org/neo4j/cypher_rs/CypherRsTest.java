@@ -6,11 +6,15 @@ import org.junit.Before;
 import org.junit.Test;
 import org.neo4j.graphdb.Transaction;
 
+import java.util.Map;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 /**
  * @author Michael Hunger @since 09.10.13
  */
+@SuppressWarnings("unchecked")
 public class CypherRsTest extends RestTestBase {
 
     public static final String KEY = "foo";
@@ -35,6 +39,65 @@ public class CypherRsTest extends RestTestBase {
         }
     }
     @Test
+    public void testAddEndpointWithOptions() throws Exception {
+        ClientResponse response = cypherRsPath.queryParam("maxConcurrent", "2").put(ClientResponse.class, QUERY);
+        assertEquals(201, response.getStatus());
+        assertEquals(cypherRsPath.getURI(),response.getLocation());
+        try (Transaction tx = beginTx()) {
+            Endpoint endpoint = Endpoint.load(properties(), KEY);
+            assertEquals(QUERY, endpoint.getQuery());
+            assertEquals(2, endpoint.intOption("maxConcurrent", 0));
+            tx.success();
+        }
+    }
+    @Test
+    public void testAddEndpointWithInvalidOptions() throws Exception {
+        ClientResponse response = cypherRsPath.queryParam("maxConcurrent", "lots").put(ClientResponse.class, QUERY);
+        assertEquals(400, response.getStatus());
+        assertEquals(400, cypherRsPath.queryParam("budget", "-1").put(ClientResponse.class, QUERY).getStatus());
+        assertEquals(400, cypherRsPath.queryParam("maxRows", "1.5").put(ClientResponse.class, QUERY).getStatus());
+        try (Transaction tx = beginTx()) {
+            assertNull(Endpoint.load(properties(), KEY));
+            tx.success();
+        }
+    }
+    @Test
+    public void testAddReservedEndpoint() throws Exception {
+        ClientResponse response = rootResource.path("test").path("_foo").put(ClientResponse.class, QUERY);
+        assertEquals(400, response.getStatus());
+    }
+    @Test
+    public void testWarmupOnAddEndpoint() throws Exception {
+        cypherRsPath.put(ClientResponse.class, QUERY);
+        rootResource.path("test").path("broken").put(ClientResponse.class, "start n=node({id} return n");
+        ClientResponse response = rootResource.path("test").path("_status").get(ClientResponse.class);
+        String result = response.getEntity(String.class);
+        assertEquals(result, 200, response.getStatus());
+        Map<String, Map<String, Object>> endpoints = (Map<String, Map<String, Object>>) Utils.readJson(result).get("endpoints");
+        assertEquals("warm", endpoints.get(KEY + "@v1").get("state"));
+        assertEquals("failed", endpoints.get("broken@v1").get("state"));
+    }
+    @Test
+    public void testEndpointVersions() throws Exception {
+        ClientResponse response = cypherRsPath.put(ClientResponse.class, "return 1 as v");
+        assertEquals(rootResource.path("test").path(KEY + "@v1").getURI().toString(), response.getHeaders().getFirst("Content-Location"));
+        cypherRsPath.queryParam("activate", "false").put(ClientResponse.class, "return 2 as v");
+        assertEquals("[1]", cypherRsPath.get(String.class));
+        assertEquals("[2]", rootResource.path("test").path(KEY + "@v2").get(String.class));
+        assertEquals("[1]", rootResource.path("test").path(KEY + "@v1").get(String.class));
+        assertEquals(404, rootResource.path("test").path(KEY + "@v3").get(ClientResponse.class).getStatus());
+
+        response = cypherRsPath.path("active").put(ClientResponse.class, "2");
+        assertEquals(200, response.getStatus());
+        assertEquals("[2]", cypherRsPath.get(String.class));
+        assertEquals("return 2 as v", cypherRsPath.path("query").get(String.class));
+
+        Map<String, Object> versions = Utils.readJson(cypherRsPath.path("versions").get(String.class));
+        assertEquals(2, versions.get("active"));
+        assertEquals(2, ((Map) versions.get("versions")).size());
+        assertEquals(404, cypherRsPath.path("active").put(ClientResponse.class, "3").getStatus());
+    }
+    @Test
     public void testDeleteNonExistingEndpoint() throws Exception {
         ClientResponse response = cypherRsPath.delete(ClientResponse.class);
         assertEquals(404, response.getStatus());
@@ -45,4 +108,12 @@ public class CypherRsTest extends RestTestBase {
         ClientResponse response = cypherRsPath.delete(ClientResponse.class);
         assertEquals(200, response.getStatus());
     }
+    @Test
+    public void testRecreatedEndpointGetsNewVersion() throws Exception {
+        cypherRsPath.put(ClientResponse.class, QUERY);
+        cypherRsPath.delete(ClientResponse.class);
+        ClientResponse response = cypherRsPath.put(ClientResponse.class, QUERY);
+        assertEquals(201, response.getStatus());
+        assertEquals(rootResource.path("test").path(KEY + "@v2").getURI().toString(), response.getHeaders().getFirst("Content-Location"));
+    }
 }
@@ -0,0 +1,30 @@
+package org.neo4j.cypher_rs;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+public class DeadlineTest {
+
+    private static final Endpoint UNLIMITED = new Endpoint("foo", "return 1", null);
+    private static final Endpoint LIMITED = new Endpoint("bar", "return 1", map("timeout", 1000));
+
+    @Test
+    public void testRequestedTimeoutIsCappedByEndpoint() throws Exception {
+        assertSame(Deadline.NONE, Deadline.forEndpoint(UNLIMITED, null));
+        assertEquals(5000, Deadline.forEndpoint(UNLIMITED, "5000").getTimeout());
+        assertEquals(1000, Deadline.forEndpoint(LIMITED, null).getTimeout());
+        assertEquals(500, Deadline.forEndpoint(LIMITED, "500").getTimeout());
+        assertEquals(1000, Deadline.forEndpoint(LIMITED, "5000").getTimeout());
+        assertEquals(1000, Deadline.forEndpoint(LIMITED, "0").getTimeout());
+    }
+
+    @Test(expected = QueryTimeoutException.class)
+    public void testExpiredDeadline() throws Exception {
+        Deadline deadline = Deadline.of(1);
+        Thread.sleep(10);
+        deadline.check();
+    }
+}
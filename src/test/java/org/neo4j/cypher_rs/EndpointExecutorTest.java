@@ -0,0 +1,139 @@
+package org.neo4j.cypher_rs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.core.GraphProperties;
+import org.neo4j.kernel.impl.core.NodeManager;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EndpointExecutorTest {
+
+    private GraphDatabaseService db;
+    private EndpointExecutor executor;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        GraphProperties props = ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(NodeManager.class).getGraphProperties();
+        try (Transaction tx = db.beginTx()) {
+            Endpoint.create(props, "numbers", "unwind range(1,{n}) as x return x", null, true);
+            Endpoint.create(props, "create", "create (n:Person {name:{name}}) return n", null, true);
+            tx.success();
+        }
+        executor = EndpointExecutor.forDatabase(db);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CypherRsContext.close(db);
+        db.shutdown();
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        final List<Object> values = new ArrayList<>();
+        int rows = executor.read("numbers", MapUtil.map("n", 3), new EndpointExecutor.RowCallback() {
+            public boolean row(Map<String, Object> row) {
+                values.add(row.get("x"));
+                return true;
+            }
+        });
+        assertEquals(3, rows);
+        assertEquals(3, values.size());
+        assertEquals(1L, ((Number) values.get(0)).longValue());
+    }
+
+    @Test
+    public void testStopEarly() throws Exception {
+        int rows = executor.read("numbers@v1", MapUtil.map("n", 100), new EndpointExecutor.RowCallback() {
+            public boolean row(Map<String, Object> row) {
+                return ((Number) row.get("x")).intValue() < 2;
+            }
+        });
+        assertEquals(2, rows);
+    }
+
+    @Test
+    public void testWriteCommits() throws Exception {
+        final List<Node> nodes = new ArrayList<>();
+        executor.write("create", MapUtil.map("name", "Andres"), new EndpointExecutor.RowCallback() {
+            public boolean row(Map<String, Object> row) {
+                nodes.add((Node) row.get("n"));
+                return true;
+            }
+        });
+        assertEquals(1, nodes.size());
+        try (Transaction tx = db.beginTx()) {
+            assertEquals("Andres", db.getNodeById(nodes.get(0).getId()).getProperty("name"));
+            tx.success();
+        }
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testUnknownEndpoint() throws Exception {
+        executor.read("unknown", null, null);
+    }
+
+    @Test
+    public void testReadRejectsWriteQuery() throws Exception {
+        try {
+            executor.read("create", MapUtil.map("name", "Andres"), null);
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("read-only"));
+            return;
+        }
+        throw new AssertionError("expected IllegalArgumentException");
+    }
+
+    @Test
+    public void testRenderAll() throws Exception {
+        try (Transaction tx = db.beginTx()) {
+            Endpoint endpoint = executor.lookup("numbers");
+            List<Map<String, Object>> params = new ArrayList<>();
+            params.add(MapUtil.map("n", 2));
+            params.add(MapUtil.map("n", 1));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            EndpointExecutor.Rendered rendered = executor.renderAll(new EndpointCall(endpoint, params), out);
+            assertEquals("[[1,2],[1]]", out.toString("UTF-8"));
+            assertNull(rendered.getTruncated());
+        }
+    }
+
+    @Test
+    public void testRenderIntoPooledBuffer() throws Exception {
+        try (Transaction tx = db.beginTx()) {
+            Endpoint endpoint = executor.lookup("numbers");
+            EndpointCall call = new EndpointCall(endpoint, Collections.singletonList(MapUtil.map("n", 3)));
+            BufferPool.Entity entity = (BufferPool.Entity) executor.render(call).getBody();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            entity.write(out);
+            assertEquals("[1,2,3]", out.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void testCloseShutsDownContext() throws Exception {
+        CypherRsContext context = CypherRsContext.forDatabase(db);
+        CypherRsContext.close(db);
+        assertTrue(context.getReadExecutor().isShutdown());
+        assertNotSame(context, CypherRsContext.forDatabase(db));
+    }
+}
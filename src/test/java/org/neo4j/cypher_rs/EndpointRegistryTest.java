@@ -0,0 +1,111 @@
+package org.neo4j.cypher_rs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.core.GraphProperties;
+import org.neo4j.kernel.impl.core.NodeManager;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EndpointRegistryTest {
+
+    private GraphDatabaseService db;
+    private GraphProperties props;
+    private EndpointRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        props = ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(NodeManager.class).getGraphProperties();
+        registry = new EndpointRegistry();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    @Test
+    public void testCachesUntilStampChanges() throws Exception {
+        try (Transaction tx = db.beginTx()) {
+            Endpoint.create(props, "foo", "return 1", null, true);
+            assertEquals(1, registry.get(props, "foo").getVersion());
+            long stamp = Endpoint.stamp(props);
+            assertTrue(stamp > 0);
+
+
+            // as stored by another instance
+            Endpoint.create(props, "foo", "return 2", null, true);
+            assertTrue(Endpoint.stamp(props) > stamp);
+            assertEquals(2, registry.get(props, "foo").getVersion());
+
+            Endpoint.remove(props, "foo");
+            assertNull(registry.get(props, "foo"));
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        try (Transaction tx = db.beginTx()) {
+            props.setProperty("foo", "return 1");
+            assertEquals("return 1", registry.get(props, "foo").getQuery());
+            props.setProperty("foo", "return 42");
+            assertEquals("return 1", registry.get(props, "foo").getQuery());
+            registry.invalidate();
+            assertEquals("return 42", registry.get(props, "foo").getQuery());
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testConcurrentCreateGetsDistinctVersions() throws Exception {
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Set<Integer> versions = Collections.synchronizedSet(new HashSet<Integer>());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final int n = i;
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    start.await();
+                    try (Transaction tx = db.beginTx()) {
+                        versions.add(Endpoint.create(props, "foo", "return " + n, null, true).getVersion());
+                        tx.success();
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals(threads, versions.size());
+        try (Transaction tx = db.beginTx()) {
+            assertEquals(threads, Endpoint.latestVersion(props, "foo"));
+            assertEquals(threads, Endpoint.loadVersions(props, "foo").size());
+            tx.success();
+        }
+    }
+}
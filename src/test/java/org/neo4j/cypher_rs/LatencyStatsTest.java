@@ -0,0 +1,34 @@
+package org.neo4j.cypher_rs;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyStatsTest {
+
+    @Test
+    public void testBucketsContainTheirValues() throws Exception {
+        for (long micros = 0; micros < 100000; micros++) {
+            int bucket = LatencyStats.bucket(micros);
+            assertTrue(micros + " above bucket " + bucket, micros <= LatencyStats.upperBound(bucket));
+            assertTrue(micros + " below bucket " + bucket, bucket == 0 || micros > LatencyStats.upperBound(bucket - 1));
+        }
+    }
+
+    @Test
+    public void testPercentile() throws Exception {
+        LatencyStats stats = new LatencyStats();
+        assertEquals(0, stats.percentile(0.99), 0);
+        for (int i = 0; i < 99; i++) {
+            stats.record(TimeUnit.MILLISECONDS.toNanos(1), false);
+        }
+        stats.record(TimeUnit.MILLISECONDS.toNanos(500), true);
+        double p99 = stats.percentile(0.99);
+        assertTrue(String.valueOf(p99), p99 >= 1 && p99 <= 1.25);
+        assertEquals(500, stats.percentile(1), 0.001);
+        assertEquals(1L, stats.toMap().get("errors"));
+    }
+}
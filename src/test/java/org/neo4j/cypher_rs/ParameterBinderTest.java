@@ -0,0 +1,52 @@
+package org.neo4j.cypher_rs;
+
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+import org.junit.Test;
+import org.neo4j.server.rest.repr.BadInputException;
+
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.Collections;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+public class ParameterBinderTest {
+
+    @Test
+    public void testGuessTypes() throws Exception {
+        assertEquals(42L, ParameterBinder.convert("42"));
+        assertEquals(-42L, ParameterBinder.convert("-42"));
+        assertEquals(0L, ParameterBinder.convert("0"));
+        assertEquals(0.5, ParameterBinder.convert("0.5"));
+        assertEquals(true, ParameterBinder.convert("TRUE"));
+        assertEquals("01234", ParameterBinder.convert("01234"));
+        assertEquals("1.2.3", ParameterBinder.convert("1.2.3"));
+        assertEquals("12345678901234567890", ParameterBinder.convert("12345678901234567890"));
+        assertEquals("-", ParameterBinder.convert("-"));
+        assertEquals("", ParameterBinder.convert(""));
+    }
+
+    @Test
+    public void testBindWithHintsAndSchema() throws Exception {
+        MultivaluedMap<String, String> params = new MultivaluedMapImpl();
+        params.add("zip:string", "12345");
+        params.add("ids", "1");
+        params.add("age", "42");
+        params.add("names", "a");
+        params.add("names", "b");
+        params.add("timeout", "10");
+
+        Map<String, Object> result = ParameterBinder.parse("ids:long[], age:string").bind(params, Collections.singleton("timeout"));
+        assertEquals("12345", result.get("zip"));
+        assertEquals(asList(1L), result.get("ids"));
+        assertEquals("42", result.get("age"));
+        assertEquals(asList("a", "b"), result.get("names"));
+        assertEquals(4, result.size());
+    }
+
+    @Test(expected = BadInputException.class)
+    public void testUnknownType() throws Exception {
+        ParameterBinder.parse("zip:zipcode");
+    }
+}
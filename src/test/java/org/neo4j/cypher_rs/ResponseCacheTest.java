@@ -0,0 +1,63 @@
+package org.neo4j.cypher_rs;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ResponseCacheTest {
+
+    private final BufferPool pool = new BufferPool(1024 * 1024, 64 * 1024);
+
+    @Test
+    public void testReleasesEvictedResponses() throws Exception {
+        ResponseCache cache = new ResponseCache(1, 1024);
+        BufferPool.Entity first = entity("[1]");
+        cache.put("users@v1?{}", first);
+        first.write(new ByteArrayOutputStream());
+        assertEquals(4096L, pool.toMap().get("in_use"));
+
+        BufferPool.Entity second = entity("[2]");
+        cache.put("users@v1?{name=[Andres]}", second);
+        second.write(new ByteArrayOutputStream());
+        assertEquals(4096L, pool.toMap().get("in_use"));
+        assertNull(cache.get("users@v1?{}"));
+
+        ResponseCache.Entry entry = cache.get("users@v1?{name=[Andres]}");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entry.getEntity().write(out);
+        assertEquals("[2]", out.toString("UTF-8"));
+
+        cache.forget("users");
+        assertEquals(0L, pool.toMap().get("in_use"));
+        assertEquals(1L, cache.toMap().get("hits"));
+    }
+
+    @Test
+    public void testEvictsUntilBytesFit() throws Exception {
+        ResponseCache cache = new ResponseCache(10, 8);
+        cache.put("users@v1?a", entity("[1]"));
+        cache.put("users@v1?b", entity("[22]"));
+        assertEquals(7L, cache.toMap().get("bytes"));
+
+        cache.put("users@v1?c", entity("[3]"));
+        assertNull(cache.get("users@v1?a"));
+        assertEquals(2, cache.toMap().get("entries"));
+        assertEquals(7L, cache.toMap().get("bytes"));
+
+        cache.put("users@v1?d", entity("[1,2,3,4]"));
+        assertNull(cache.get("users@v1?d"));
+        assertEquals(2, cache.toMap().get("entries"));
+
+        cache.clear();
+        assertEquals(0L, cache.toMap().get("bytes"));
+    }
+
+    private BufferPool.Entity entity(String json) throws Exception {
+        BufferPool.Output out = pool.newOutput();
+        out.write(json.getBytes("UTF-8"));
+        return out.toEntity();
+    }
+}
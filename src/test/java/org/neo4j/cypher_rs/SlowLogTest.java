@@ -0,0 +1,100 @@
+package org.neo4j.cypher_rs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.cypher.javacompat.ExecutionEngine;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+@SuppressWarnings("unchecked")
+public class SlowLogTest {
+
+    private GraphDatabaseService db;
+    private SlowLog slowLog;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        slowLog = new SlowLog(db, new ExecutionEngine(db), 1, 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    @Test
+    public void testRecordSlowCalls() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            slowLog.record(invocation(map("name", "call" + i, "password", "secret")), 200);
+        }
+        Map<String, Object> data = slowLog.toMap();
+        List<Map<String, Object>> entries = (List<Map<String, Object>>) data.get("entries");
+        assertEquals(2, entries.size());
+        Map<String, Object> entry = entries.get(0);
+        assertEquals("foo@v1", entry.get("endpoint"));
+        assertEquals(map("name", "call2", "password", "***"), entry.get("params"));
+        assertEquals(1, entry.get("rows"));
+        assertTrue(((Map) entry.get("phases")).containsKey("execute"));
+        assertEquals("call1", ((Map) entries.get(1).get("params")).get("name"));
+
+        for (int i = 0; i < 100 && entry.get("plan") == null; i++) {
+            Thread.sleep(50);
+            entry = ((List<Map<String, Object>>) slowLog.toMap().get("entries")).get(0);
+        }
+        String plan = (String) entry.get("plan");
+        assertNotNull(plan);
+        assertTrue(plan, !plan.startsWith("PROFILE failed"));
+    }
+
+    @Test
+    public void testWriteEndpointsHaveNoPlan() throws Exception {
+        Invocation invocation = invocation(map("name", "foo"));
+        invocation.setEndpoint(new Endpoint("bar", 1, "create (n {name:{name}})", null));
+        slowLog.record(invocation, 200);
+        Map<String, Object> entry = ((List<Map<String, Object>>) slowLog.toMap().get("entries")).get(0);
+        assertEquals("bar@v1", entry.get("endpoint"));
+        assertFalse(entry.containsKey("plan"));
+    }
+
+    @Test
+    public void testTimedOutCallsAreNotProfiled() throws Exception {
+        slowLog.record(invocation(map("name", "foo")), 504);
+        Thread.sleep(200);
+        Map<String, Object> entry = ((List<Map<String, Object>>) slowLog.toMap().get("entries")).get(0);
+        assertEquals(504, entry.get("status"));
+        assertFalse(entry.containsKey("plan"));
+    }
+
+    @Test
+    public void testSanitizeParams() throws Exception {
+        StringBuilder longValue = new StringBuilder();
+        for (int i = 0; i < 100; i++) longValue.append('x');
+        Map<String, Object> params = SlowLog.sanitize(map("text", longValue.toString(), "api_token", "abc",
+                "ids", java.util.Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11)));
+        assertEquals(SlowLog.MAX_VALUE_LENGTH + 3, ((String) params.get("text")).length());
+        assertEquals("***", params.get("api_token"));
+        assertEquals("[11 values]", params.get("ids"));
+    }
+
+    private Invocation invocation(Map<String, Object> params) throws InterruptedException {
+        Invocation invocation = new Invocation("GET", Trace.NONE);
+        invocation.setEndpoint(new Endpoint("foo", 1, "return {name} as name", null));
+        invocation.setParams(params);
+        invocation.phase("execute");
+        Thread.sleep(5);
+        invocation.endPhase();
+        invocation.addRows(1);
+        return invocation;
+    }
+}
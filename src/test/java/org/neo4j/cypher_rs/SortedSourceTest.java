@@ -0,0 +1,98 @@
+package org.neo4j.cypher_rs;
+
+import org.junit.Test;
+import org.neo4j.server.rest.repr.BadInputException;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SortedSourceTest {
+
+    private static final String CSV = "from,to\n10,1\n9,2\nb,3\n9,4\na,5\n10,6\n007,7\n";
+
+    private SortedSource source(String csv, boolean group, String... keys) throws Exception {
+        // a buffer of 2 lines spills to several files
+        return new SortedSource(BatchImporter.csv(new StringReader(csv), ','), asList(keys), 2, group);
+    }
+
+    @Test
+    public void testSortsWithSpills() throws Exception {
+        SortedSource source = source(CSV, false, "from");
+        List<Object> to = new ArrayList<>();
+        List<Integer> lines = new ArrayList<>();
+        for (Map<String, Object> params = source.next(); params != null; params = source.next()) {
+            to.add(params.get("to"));
+            lines.add(source.getLine());
+        }
+        assertEquals(asList((Object) 7L, 2L, 4L, 1L, 6L, 5L, 3L), to);
+        assertEquals(asList(8, 3, 5, 2, 7, 6, 4), lines);
+    }
+
+    @Test
+    public void testMergesSpillsInPasses() throws Exception {
+        StringBuilder csv = new StringBuilder("from,to\n");
+        for (int i = 0; i < 20; i++) {
+            csv.append(i * 7 % 20).append(',').append(i).append('\n');
+        }
+        // 10 spills of 2 lines, merged 3 at a time
+        SortedSource source = source(csv.toString(), false, "from").withFanIn(3);
+        for (long from = 0; from < 20; from++) {
+            assertEquals(from, source.next().get("from"));
+        }
+        assertNull(source.next());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGroups() throws Exception {
+        SortedSource source = source(CSV, true, "from");
+        assertEquals(7L, source.next().get("from"));
+        Map<String, Object> params = source.next();
+        assertEquals(9L, params.get("from"));
+        List<Map<String, Object>> rows = (List<Map<String, Object>>) params.get(SortedSource.ROWS);
+        assertEquals(2, rows.size());
+        assertEquals(4L, rows.get(1).get("to"));
+        assertEquals(2, source.getRecords().size());
+        assertEquals(3, source.getLine());
+        assertEquals(10L, source.next().get("from"));
+        assertEquals("a", source.next().get("from"));
+        assertEquals("b", source.next().get("from"));
+        assertNull(source.next());
+    }
+
+    @Test
+    public void testReportsUnreadableLinesFirst() throws Exception {
+        SortedSource source = source("from,to\n2,1\n1\n1,2\n", false, "from");
+        try {
+            source.next();
+            throw new AssertionError("expected BadInputException");
+        } catch (BadInputException e) {
+            assertEquals(3, source.getLine());
+        }
+        assertEquals(2L, source.next().get("to"));
+        assertEquals(1L, source.next().get("to"));
+        assertNull(source.next());
+    }
+
+    @Test(expected = BadInputException.class)
+    public void testUnknownColumn() throws Exception {
+        source(CSV, false, "id");
+    }
+
+    @Test
+    public void testCompareValues() throws Exception {
+        assertTrue(SortedSource.compareValues("9", "10") < 0);
+        assertTrue(SortedSource.compareValues("-5", "3") < 0);
+        assertTrue(SortedSource.compareValues("10", "1a") < 0);
+        assertTrue(SortedSource.compareValues("1a", "2b") < 0);
+        assertTrue(SortedSource.compareValues("07", "1") > 0);
+        assertEquals(0, SortedSource.compareValues("007", "7"));
+    }
+}
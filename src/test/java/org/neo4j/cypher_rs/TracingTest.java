@@ -0,0 +1,95 @@
+package org.neo4j.cypher_rs;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.map;
+
+public class TracingTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testExportSpans() throws Exception {
+        File file = File.createTempFile("spans", ".jsonl");
+        file.deleteOnExit();
+        Tracing tracing = new Tracing(1.0, file.getPath());
+        Trace trace = tracing.start("GET /foo", null);
+        assertTrue(trace.isRecording());
+        trace.start("execute").set("endpoint", "foo@v1").end();
+        trace.getRoot().set("status", 200);
+        trace.end();
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(1, lines.size());
+        Map<String, Object> resourceSpans = (Map<String, Object>) ((List) Utils.readJson(lines.get(0)).get("resourceSpans")).get(0);
+        Map<String, Object> scopeSpans = (Map<String, Object>) ((List) resourceSpans.get("scopeSpans")).get(0);
+        List<Map<String, Object>> spans = (List<Map<String, Object>>) scopeSpans.get("spans");
+        assertEquals(2, spans.size());
+        Map<String, Object> span = spans.get(0);
+        Map<String, Object> root = spans.get(1);
+        assertEquals("execute", span.get("name"));
+        assertEquals("GET /foo", root.get("name"));
+        assertEquals(2, root.get("kind"));
+        assertEquals(root.get("traceId"), span.get("traceId"));
+        assertEquals(root.get("spanId"), span.get("parentSpanId"));
+        assertEquals(map("key", "endpoint", "value", map("stringValue", "foo@v1")), ((List) span.get("attributes")).get(0));
+        assertEquals(map("key", "status", "value", map("intValue", "200")), ((List) root.get("attributes")).get(0));
+        assertTrue(Long.parseLong((String) root.get("endTimeUnixNano")) >= Long.parseLong((String) root.get("startTimeUnixNano")));
+    }
+
+    @Test
+    public void testAnyValue() throws Exception {
+        assertEquals(map("boolValue", true), Trace.anyValue(true));
+        assertEquals(map("doubleValue", 0.5), Trace.anyValue(0.5));
+        assertEquals(map("intValue", "3"), Trace.anyValue(3L));
+        assertEquals(map("arrayValue", map("values", asList(map("stringValue", "a")))), Trace.anyValue(asList("a")));
+    }
+
+    @Test
+    public void testSampling() throws Exception {
+        Tracing tracing = new Tracing(0, null);
+        assertSame(Trace.NONE, tracing.start("GET /foo", null));
+        assertSame(Trace.NONE, tracing.start("GET /foo", "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-00"));
+        Trace trace = tracing.start("GET /foo", "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01");
+        assertTrue(trace.isRecording());
+        assertFalse(Trace.NONE.isRecording());
+        Trace.NONE.start("execute").set("rows", 1).end();
+    }
+
+    @Test
+    public void testTraceparentFlags() throws Exception {
+        Tracing tracing = new Tracing(0, null);
+        assertTrue(tracing.start("GET /foo", "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-03").isRecording());
+        assertTrue(tracing.start("GET /foo", "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-0b").isRecording());
+        assertSame(Trace.NONE, tracing.start("GET /foo", "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-10"));
+        assertSame(Trace.NONE, tracing.start("GET /foo", "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-a0"));
+    }
+
+    @Test
+    public void testMalformedTraceparentIsIgnored() throws Exception {
+        Tracing never = new Tracing(0, null);
+        Tracing always = new Tracing(1.0, null);
+        for (String traceparent : asList(
+                "00-00000000000000000000000000000000-b7ad6b7169203331-01",
+                "00-0af7651916cd43dd8448eb211c80319c-0000000000000000-01",
+                "00-0AF7651916CD43DD8448EB211C80319C-b7ad6b7169203331-01",
+                "00-0af7651916cd43dd8448eb211c80319c-b7ad6b716920333x-01",
+                "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-1",
+                "ff-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01")) {
+            assertSame(traceparent, Trace.NONE, never.start("GET /foo", traceparent));
+            Trace trace = always.start("GET /foo", traceparent);
+            assertTrue(traceparent, trace.isRecording());
+            assertFalse(traceparent, "0af7651916cd43dd8448eb211c80319c".equals(trace.getRoot().toMap().get("traceId")));
+        }
+    }
+}
@@ -12,4 +12,12 @@ public class UtilsTest {
     public void testIsWriteQuery() throws Exception {
         assertEquals(true, Utils.isWriteQuery("create (n) return n"));
     }
+
+    @Test
+    public void testConvertIfNeeded() throws Exception {
+        assertEquals(7L, Utils.convertIfNeeded("007"));
+        assertEquals(0.5, Utils.convertIfNeeded("0.5"));
+        assertEquals(true, Utils.convertIfNeeded("true"));
+        assertEquals("foo", Utils.convertIfNeeded("foo"));
+    }
 }